@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/*
+ * Builds synthetic classes as client and server pairs. Every member, inner class and interface is given to both sides,
+ * or to only one of them, using a random seeded from the class name. The same settings always produce the same bytes,
+ * and both sides keep their shared members in the same relative order, like real obfuscated jars do.
+ */
+class ClassGenerator {
+    private final int fields;
+    private final int methods;
+    private final int inners;
+    private final int interfaces;
+    private final double sided;
+    private final long seed;
+
+    /*
+     * sided is the fraction of everything that only exists on one side, 0 makes both sides identical.
+     */
+    ClassGenerator(int fields, int methods, int inners, int interfaces, double sided) {
+        this(fields, methods, inners, interfaces, sided, 0);
+    }
+
+    ClassGenerator(int fields, int methods, int inners, int interfaces, double sided, long seed) {
+        this.seed = seed;
+        this.fields = fields;
+        this.methods = methods;
+        this.inners = inners;
+        this.interfaces = interfaces;
+        this.sided = sided;
+    }
+
+    byte[] generate(String name, boolean client) {
+        Random rand = new Random(this.seed ^ (name.hashCode() * 31L + this.fields * 7L + this.methods));
+
+        List<String> intfs = new ArrayList<>();
+        for (int x = 0; x < this.interfaces; x++) {
+            if (include(rand, client))
+                intfs.add("bench/Intf" + x);
+        }
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", intfs.toArray(new String[intfs.size()]));
+        cw.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+
+        for (int x = 0; x < this.inners; x++) {
+            if (include(rand, client))
+                cw.visitInnerClass(name + "$Inner" + x, name, "Inner" + x, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+        }
+
+        for (int x = 0; x < this.fields; x++) {
+            if (include(rand, client))
+                cw.visitField(Opcodes.ACC_PUBLIC, "field" + x, x % 2 == 0 ? "I" : "Ljava/lang/String;", null, null).visitEnd();
+        }
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int x = 0; x < this.methods; x++) {
+            if (!include(rand, client))
+                continue;
+
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method" + x, "(I)I", null, null);
+            mv.visitCode();
+            Label start = new Label();
+            mv.visitLabel(start);
+            mv.visitLineNumber(10 + x * 3, start);
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitIntInsn(Opcodes.SIPUSH, x);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "hashCode", "()I", false);
+            mv.visitInsn(Opcodes.IXOR);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // Both sides make the same calls in the same order, so they always agree on who has what.
+    private boolean include(Random rand, boolean client) {
+        boolean sided = rand.nextDouble() < this.sided;
+        boolean clientSide = rand.nextBoolean();
+        return !sided || clientSide == client;
+    }
+
+    /*
+     * Writes a jar of count classes for one side. A fraction of the classes, matching the sided setting, only exist on one side.
+     */
+    void writeJar(File file, int count, boolean client) throws IOException {
+        Random rand = new Random(this.seed ^ count);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int x = 0; x < count; x++) {
+                if (!include(rand, client))
+                    continue;
+                String name = String.format("bench/p%d/Class%d", x % 16, x);
+                zip.putNextEntry(new ZipEntry(name + ".class"));
+                zip.write(generate(name, client));
+                zip.closeEntry();
+            }
+        }
+    }
+}
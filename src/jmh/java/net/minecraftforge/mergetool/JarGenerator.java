@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/*
+ * Builds a synthetic client and server jar pair from a seed, shaped like the real thing: most classes exist on both sides,
+ * most shared classes are identical, and the ones that differ have members only on one side. The client can also carry
+ * resources, and the server can be wrapped in a bundler jar with a versions.list, the same way Mojang ships it.
+ */
+class JarGenerator {
+    private long seed = 0;
+    private int classes = 1000;
+    private double shared = 0.9;
+    private double differing = 0.1;
+    private int members = 8;
+    private int resources = 0;
+    private int resourceSize = 4096;
+
+    public JarGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public JarGenerator classes(int classes) {
+        this.classes = classes;
+        return this;
+    }
+
+    /*
+     * Fraction of classes that exist on both sides, the rest are split evenly between client and server only classes.
+     */
+    public JarGenerator shared(double shared) {
+        this.shared = shared;
+        return this;
+    }
+
+    /*
+     * Fraction of the shared classes that are different on each side, and need a real merge.
+     */
+    public JarGenerator differing(double differing) {
+        this.differing = differing;
+        return this;
+    }
+
+    public JarGenerator members(int members) {
+        this.members = members;
+        return this;
+    }
+
+    public JarGenerator resources(int count, int size) {
+        this.resources = count;
+        this.resourceSize = size;
+        return this;
+    }
+
+    public void generate(File client, File server) throws IOException {
+        ClassGenerator same = new ClassGenerator(this.members, this.members, 2, 2, 0, this.seed);
+        ClassGenerator diff = new ClassGenerator(this.members, this.members, 2, 2, 0.2, this.seed);
+        Random rand = new Random(this.seed);
+
+        try (ZipOutputStream cZip = new ZipOutputStream(new FileOutputStream(client));
+             ZipOutputStream sZip = new ZipOutputStream(new FileOutputStream(server))) {
+            for (int x = 0; x < this.classes; x++) {
+                String name = String.format("net/minecraft/p%d/C%d", x % 64, x);
+                boolean isShared = rand.nextDouble() < this.shared;
+                boolean isClient = rand.nextBoolean();
+                boolean isDiff = rand.nextDouble() < this.differing;
+                ClassGenerator gen = isShared && isDiff ? diff : same;
+
+                if (isShared || isClient)
+                    write(cZip, name + ".class", gen.generate(name, true));
+                if (isShared || !isClient)
+                    write(sZip, name + ".class", gen.generate(name, false));
+            }
+
+            byte[] words = "block item entity model texture sound state level chunk render ".getBytes(StandardCharsets.UTF_8);
+            for (int x = 0; x < this.resources; x++) {
+                // Text like data, so it compresses about as well as real json and lang files.
+                byte[] data = new byte[this.resourceSize];
+                for (int y = 0; y < data.length; y++)
+                    data[y] = rand.nextInt(8) == 0 ? (byte)('0' + rand.nextInt(10)) : words[(y + x) % words.length];
+                write(cZip, String.format("assets/minecraft/p%d/res%d.json", x % 32, x), data);
+            }
+        }
+    }
+
+    /*
+     * Wraps the server jar in a bundler jar, with the server stored uncompressed the same way the bundler writes it.
+     */
+    public static void bundle(File server, File bundled) throws IOException {
+        byte[] data = Files.readAllBytes(server.toPath());
+        String hash;
+        try {
+            StringBuilder buf = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+                buf.append(String.format("%02x", b));
+            hash = buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Missing SHA-256 MessageDigest", e);
+        }
+
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundled))) {
+            write(zip, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nBundler-Format: 1.0\r\nMain-Class: net.minecraft.bundler.Main\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            write(zip, "META-INF/versions.list", (hash + "\tbench:server:1.0\tserver-1.0.jar\n").getBytes(StandardCharsets.UTF_8));
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            ZipEntry entry = new ZipEntry("META-INF/versions/server-1.0.jar");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(data);
+            zip.closeEntry();
+        }
+    }
+
+    private static void write(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Long> seed = parser.accepts("seed").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Integer> classes = parser.accepts("classes").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        OptionSpec<Double> shared = parser.accepts("shared").withRequiredArg().ofType(Double.class).defaultsTo(0.9);
+        OptionSpec<Double> differing = parser.accepts("differing").withRequiredArg().ofType(Double.class).defaultsTo(0.1);
+        OptionSpec<Integer> members = parser.accepts("members").withRequiredArg().ofType(Integer.class).defaultsTo(8);
+        OptionSpec<Integer> resources = parser.accepts("resources").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Integer> resourceSize = parser.accepts("resource-size").withRequiredArg().ofType(Integer.class).defaultsTo(4096);
+        OptionSpec<Void> bundled = parser.accepts("bundled");
+        OptionSet options = parser.parse(args);
+
+        File dir = options.valueOf(output);
+        dir.mkdirs();
+        File client = new File(dir, "client.jar");
+        File server = new File(dir, "server.jar");
+        new JarGenerator()
+            .seed(options.valueOf(seed))
+            .classes(options.valueOf(classes))
+            .shared(options.valueOf(shared))
+            .differing(options.valueOf(differing))
+            .members(options.valueOf(members))
+            .resources(options.valueOf(resources), options.valueOf(resourceSize))
+            .generate(client, server);
+
+        if (options.has(bundled))
+            bundle(server, new File(dir, "bundled.jar"));
+    }
+}
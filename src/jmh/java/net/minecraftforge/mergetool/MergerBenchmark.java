@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergerBenchmark {
+    @Param({"10", "100", "1000"})
+    public int members;
+
+    @Param({"4"})
+    public int inners;
+
+    @Param({"4"})
+    public int interfaces;
+
+    @Param({"0.2"})
+    public double sided;
+
+    @Param({"API"})
+    public AnnotationVersion annotation;
+
+    private Merger merger;
+    private byte[] client;
+    private byte[] server;
+    private byte[] shared;
+    private List<String> clientOnly;
+    private List<String> serverOnly;
+
+    @Setup
+    public void setup() {
+        ClassGenerator gen = new ClassGenerator(this.members, this.members, this.inners, this.interfaces, this.sided);
+        this.client = gen.generate("bench/Merged", true);
+        this.server = gen.generate("bench/Merged", false);
+        this.shared = new ClassGenerator(this.members, this.members, this.inners, this.interfaces, 0).generate("bench/Shared", true);
+        this.merger = new Merger((File)null, null, null).annotate(this.annotation, false);
+        this.clientOnly = Arrays.asList("bench/Intf0", "bench/Intf1");
+        this.serverOnly = Arrays.asList("bench/Intf2");
+    }
+
+    // Full path for a shared class that needs merging, including the identical check
+    @Benchmark
+    public byte[] processClass() throws IOException {
+        return this.merger.processClass(this.client, this.server);
+    }
+
+    // Shared class that is byte for byte identical on both sides
+    @Benchmark
+    public byte[] processIdentical() throws IOException {
+        return this.merger.processClass(this.shared, this.shared.clone());
+    }
+
+    // Reading both shapes, aligning the member lists and writing the merged class
+    @Benchmark
+    public byte[] mergeClass() {
+        return this.merger.mergeClass(this.client, this.server);
+    }
+
+    // Side only class, copied through with an added annotation
+    @Benchmark
+    public byte[] copyClass() {
+        return this.merger.copyClass(this.client, true);
+    }
+
+    @Benchmark
+    public byte[] annotationAdd() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "bench/Annotated", null, "java/lang/Object", null);
+        this.annotation.add(cw, true);
+        this.annotation.add(cw, this.clientOnly, this.serverOnly);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/*
+ * End to end scaling runs of a full merge, over every combination of the requested class counts, shared fractions,
+ * resource counts, server layouts and thread counts. Inputs are built by JarGenerator and kept in the work directory,
+ * so they are only generated once. Each merge runs in a fresh JVM, which reports its wall time, peak heap, GC count
+ * and GC time, and allocated bytes. The results are printed as a table and written as JSON.
+ */
+public class ScalingHarness {
+    private static final String RESULT = "RESULT ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "--run".equals(args[0])) {
+            run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).defaultsTo(new File("scaling.json"));
+        OptionSpec<File> work = parser.accepts("work").withRequiredArg().ofType(File.class).defaultsTo(new File("scaling"));
+        OptionSpec<Integer> classes = parser.accepts("classes").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(1000, 10000, 100000);
+        OptionSpec<Double> shared = parser.accepts("shared").withRequiredArg().ofType(Double.class).withValuesSeparatedBy(',').defaultsTo(0.9);
+        OptionSpec<Integer> resources = parser.accepts("resources").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(0);
+        OptionSpec<Boolean> bundled = parser.accepts("bundled").withRequiredArg().ofType(Boolean.class).withValuesSeparatedBy(',').defaultsTo(false, true);
+        OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg().ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(1);
+        OptionSpec<Long> seed = parser.accepts("seed").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<String> xmx = parser.accepts("xmx").withRequiredArg().ofType(String.class).defaultsTo("4g");
+        OptionSet options = parser.parse(args);
+
+        File workDir = options.valueOf(work).getAbsoluteFile();
+        List<String> results = new ArrayList<>();
+        System.out.println(String.format(Locale.ROOT, "%8s %6s %9s %7s %7s | %10s %10s %5s %8s %12s",
+            "classes", "shared", "resources", "bundled", "threads", "wall ms", "peak MiB", "gcs", "gc ms", "alloc MiB"));
+
+        for (int cls : options.valuesOf(classes)) {
+            for (double share : options.valuesOf(shared)) {
+                for (int res : options.valuesOf(resources)) {
+                    File inputs = new File(workDir, String.format(Locale.ROOT, "c%d-s%s-r%d-%d", cls, share, res, options.valueOf(seed)));
+                    File client = new File(inputs, "client.jar");
+                    File server = new File(inputs, "server.jar");
+                    File bundle = new File(inputs, "bundled.jar");
+                    if (!bundle.exists()) {
+                        inputs.mkdirs();
+                        new JarGenerator().seed(options.valueOf(seed)).classes(cls).shared(share).resources(res, 4096).generate(client, server);
+                        JarGenerator.bundle(server, bundle);
+                    }
+
+                    for (boolean bund : options.valuesOf(bundled)) {
+                        for (int thread : options.valuesOf(threads)) {
+                            String result = fork(options.valueOf(xmx), client, bund ? bundle : server, new File(inputs, "merged.jar"), bund, thread);
+                            String[] pts = result.split(" ");
+                            System.out.println(String.format(Locale.ROOT, "%8d %6s %9d %7s %7d | %10s %10s %5s %8s %12s",
+                                cls, share, res, bund, thread, pts[0], pts[1], pts[2], pts[3], pts[4]));
+                            results.add(String.format(Locale.ROOT,
+                                "{\"classes\":%d,\"shared\":%s,\"resources\":%d,\"bundled\":%s,\"threads\":%d,\"wallMs\":%s,\"peakHeapMiB\":%s,\"gcCount\":%s,\"gcMs\":%s,\"allocatedMiB\":%s}",
+                                cls, share, res, bund, thread, pts[0], pts[1], pts[2], pts[3], pts[4]));
+                        }
+                    }
+                }
+            }
+        }
+
+        File out = options.valueOf(output).getAbsoluteFile();
+        out.getParentFile().mkdirs();
+        Files.write(out.toPath(), ("[\n  " + String.join(",\n  ", results) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results: " + out);
+    }
+
+    private static String fork(String xmx, File client, File server, File merged, boolean bundled, int threads) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        cmd.add("-Xmx" + xmx);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(ScalingHarness.class.getName());
+        cmd.add("--run");
+        cmd.add(client.getAbsolutePath());
+        cmd.add(server.getAbsolutePath());
+        cmd.add(merged.getAbsolutePath());
+        cmd.add(Boolean.toString(bundled));
+        cmd.add(Integer.toString(threads));
+
+        Process proc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String result = null;
+        StringBuilder log = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(RESULT))
+                    result = line.substring(RESULT.length());
+                else
+                    log.append(line).append('\n');
+            }
+        }
+        if (proc.waitFor() != 0 || result == null)
+            throw new IOException("Merge run failed:\n" + log);
+        return result;
+    }
+
+    // Runs in the forked JVM, prints a single result line: wall ms, peak heap MiB, gc count, gc ms, allocated MiB
+    private static void run(String[] args) throws IOException {
+        File client = new File(args[0]);
+        File server = new File(args[1]);
+        File merged = new File(args[2]);
+        boolean bundled = Boolean.parseBoolean(args[3]);
+        int threads = Integer.parseInt(args[4]);
+        Files.deleteIfExists(merged.toPath());
+
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heap.add(pool);
+            }
+        }
+        long gcCount = 0, gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount -= gc.getCollectionCount();
+            gcTime -= gc.getCollectionTime();
+        }
+        long allocated = -allocatedBytes();
+
+        // Worker threads are kept alive until they have been measured, their allocations are lost once they exit.
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        long start = System.nanoTime();
+        Merger merger = new Merger(client, server, merged).annotate(AnnotationVersion.API, true).keepData().threads(threads).executor(pool);
+        if (bundled)
+            merger.bundledServerJar();
+        merger.process();
+        long wall = System.nanoTime() - start;
+
+        allocated += allocatedBytes();
+        if (pool != null)
+            pool.shutdown();
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcTime += gc.getCollectionTime();
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean bean : heap)
+            peak += bean.getPeakUsage().getUsed();
+
+        System.out.println(String.format(Locale.ROOT, "%s%d %d %d %d %s", RESULT, wall / 1_000_000, peak >> 20, gcCount, gcTime,
+            allocated < 0 ? "-1" : Long.toString(allocated >> 20)));
+    }
+
+    // Sum of the bytes allocated by every live thread, or less than 0 if the JVM can't report it.
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return Long.MIN_VALUE / 2;
+
+        long total = 0;
+        for (long alloc : ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (alloc > 0)
+                total += alloc;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StripperBenchmark {
+    @Param({"500"})
+    public int classes;
+
+    @Param({"50"})
+    public int members;
+
+    // Fraction of the classes listed in the strip data
+    @Param({"0.25"})
+    public double stripped;
+
+    private File dir;
+    private File input;
+    private File output;
+    private Stripper stripper;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("mergetool-bench").toFile();
+        this.input = new File(this.dir, "input.jar");
+        this.output = new File(this.dir, "output.jar");
+
+        // Build a merged jar, so classes and members carry the side annotations that get stripped
+        ClassGenerator gen = new ClassGenerator(this.members, this.members, 2, 2, 0.2);
+        File client = new File(this.dir, "client.jar");
+        File server = new File(this.dir, "server.jar");
+        gen.writeJar(client, this.classes, true);
+        gen.writeJar(server, this.classes, false);
+        new Merger(client, server, this.input).annotate(AnnotationVersion.API, true).process();
+
+        List<String> lines = new ArrayList<>();
+        int count = (int)(this.classes * this.stripped);
+        for (int x = 0; x < count; x++) {
+            String name = String.format("bench/p%d/Class%d", x % 16, x);
+            lines.add(name);
+            for (int y = 0; y < this.members; y += 4)
+                lines.add('\t' + name + " method" + y + "(I)I");
+        }
+        File data = new File(this.dir, "strip.txt");
+        Files.write(data.toPath(), lines, StandardCharsets.UTF_8);
+
+        this.stripper = new Stripper();
+        this.stripper.loadData(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : this.dir.listFiles())
+            file.delete();
+        this.dir.delete();
+    }
+
+    @Benchmark
+    public File process() throws IOException {
+        this.stripper.process(this.input, this.output);
+        return this.output;
+    }
+}
@@ -4,6 +4,7 @@
  */
 package net.minecraftforge.mergetool;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.objectweb.asm.AnnotationVisitor;
@@ -61,38 +62,84 @@ public enum AnnotationVersion {
     }
 
     public void add(ClassVisitor cls, List<String> clientOnly, List<String> serverOnly) {
+        List<String> interfaces = new ArrayList<>(clientOnly.size() + serverOnly.size());
+        List<String> sides = new ArrayList<>(clientOnly.size() + serverOnly.size());
+        clientOnly.forEach(intf -> { interfaces.add(intf); sides.add(this.client); });
+        serverOnly.forEach(intf -> { interfaces.add(intf); sides.add(this.server); });
+        addInterfaces(cls, interfaces, sides);
+    }
+
+    /*
+     * Marks each interface as only implemented on the side at the same index. Sides are the names of the side enum values, such as CLIENT.
+     */
+    public void addInterfaces(ClassVisitor cls, List<String> interfaces, List<String> sides) {
         if (this.repeatable == null || this.interface_key == null)
             return;
 
-        if (clientOnly.size() + serverOnly.size() == 1) {
-            if (clientOnly.size() == 1)
-                add(cls.visitAnnotation(this.holder, true), true).visit(interface_key, Type.getObjectType(clientOnly.get(0)));
-            else
-                add(cls.visitAnnotation(this.holder, true), false).visit(interface_key, Type.getObjectType(serverOnly.get(0)));
+        // visitEnd is required on the nested visitors when writing directly to a ClassWriter, it's what fills in the value counts.
+        if (interfaces.size() == 1) {
+            addInterface(cls.visitAnnotation(this.holder, true), sides.get(0), interfaces.get(0));
         } else {
-            AnnotationVisitor rep = cls.visitAnnotation(this.holder, true).visitArray("value");
-            clientOnly.forEach(intf -> add(rep.visitAnnotation(null, this.repeatable), true).visit(interface_key, Type.getObjectType(intf)));
-            serverOnly.forEach(intf -> add(rep.visitAnnotation(null, this.repeatable), false).visit(interface_key, Type.getObjectType(intf)));
+            AnnotationVisitor ann = cls.visitAnnotation(this.holder, true);
+            AnnotationVisitor rep = ann == null ? null : ann.visitArray("value");
+            if (rep != null) {
+                for (int x = 0; x < interfaces.size(); x++)
+                    addInterface(rep.visitAnnotation(null, this.repeatable), sides.get(x), interfaces.get(x));
+                rep.visitEnd();
+            }
+            end(ann);
         }
     }
 
+    private void addInterface(AnnotationVisitor ann, String side, String intf) {
+        if (ann == null)
+            return;
+        add(ann, side).visit(interface_key, Type.getObjectType(intf));
+        ann.visitEnd();
+    }
+
+    // The name of the side enum value for the client or the server.
+    String getSide(boolean isClientOnly) {
+        return isClientOnly ? this.client : this.server;
+    }
+
     public void add(ClassVisitor cls, boolean isClientOnly) {
-        add(cls.visitAnnotation(this.holder, true), isClientOnly);
+        add(cls, getSide(isClientOnly));
     }
 
     public void add(FieldVisitor fld, boolean isClientOnly) {
-        add(fld.visitAnnotation(this.holder, true), isClientOnly);
+        add(fld, getSide(isClientOnly));
     }
 
     public void add(MethodVisitor mtd, boolean isClientOnly) {
-        add(mtd.visitAnnotation(this.holder, true), isClientOnly);
+        add(mtd, getSide(isClientOnly));
     }
 
-    private AnnotationVisitor add(AnnotationVisitor ann, boolean isClientOnly) {
-        ann.visitEnum("value", this.value, (isClientOnly ? this.client : this.server));
+    // Sides are the names of the side enum values, for merges that label their inputs with something other than client and server.
+    public void add(ClassVisitor cls, String side) {
+        end(add(cls.visitAnnotation(this.holder, true), side));
+    }
+
+    public void add(FieldVisitor fld, String side) {
+        end(add(fld.visitAnnotation(this.holder, true), side));
+    }
+
+    public void add(MethodVisitor mtd, String side) {
+        end(add(mtd.visitAnnotation(this.holder, true), side));
+    }
+
+    // Visitors return null for annotations they drop, such as when the output is being stripped.
+    private AnnotationVisitor add(AnnotationVisitor ann, String side) {
+        if (ann != null)
+            ann.visitEnum("value", this.value, side);
         return ann;
     }
 
+    private static void end(AnnotationVisitor ann) {
+        if (ann != null)
+            ann.visitEnd();
+    }
+
     @SuppressWarnings("unchecked")
     private static <E extends Throwable, R> R sneak(Throwable e) throws E {
         throw (E)e;
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.util.function.Consumer;
+
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+
+/*
+ * Streaming visitor that adds extra class level annotations after the ones already on the class.
+ * Everything else is passed through untouched, so when the delegate is a ClassWriter built from the
+ * source ClassReader, method bodies and the constant pool are copied as is.
+ */
+class ClassAnnotator extends ClassVisitor {
+    private final Consumer<ClassVisitor> annotations;
+    private boolean annotated = false;
+
+    ClassAnnotator(ClassVisitor cv, Consumer<ClassVisitor> annotations) {
+        super(Opcodes.ASM9, cv);
+        this.annotations = annotations;
+    }
+
+    protected void annotate() {
+        if (!this.annotated) {
+            this.annotated = true;
+            this.annotations.accept(this.cv);
+        }
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+        annotate();
+        super.visitAttribute(attribute);
+    }
+
+    @Override
+    public void visitNestMember(String nestMember) {
+        annotate();
+        super.visitNestMember(nestMember);
+    }
+
+    @Override
+    public void visitPermittedSubclass(String permittedSubclass) {
+        annotate();
+        super.visitPermittedSubclass(permittedSubclass);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        annotate();
+        super.visitInnerClass(name, outerName, innerName, access);
+    }
+
+    @Override
+    public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+        annotate();
+        return super.visitRecordComponent(name, descriptor, signature);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        annotate();
+        return super.visitField(access, name, descriptor, signature, value);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        annotate();
+        return super.visitMethod(access, name, descriptor, signature, exceptions);
+    }
+
+    @Override
+    public void visitEnd() {
+        annotate();
+        super.visitEnd();
+    }
+}
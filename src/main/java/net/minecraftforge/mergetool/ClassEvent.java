@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import org.objectweb.asm.ClassReader;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * Flight recorder event for a single class being merged, annotated or stripped. Only classes slower than the threshold are recorded,
+ * it can be changed in the recording settings. Only use this through Stats, which skips it on JVMs without flight recorder.
+ */
+@Name("net.minecraftforge.mergetool.Class")
+@Label("Slow Class")
+@Category("MergeTool")
+@Description("A class that took longer than the threshold to process")
+@Threshold("10 ms")
+@StackTrace(false)
+class ClassEvent extends Event {
+    @Label("Class")
+    String className;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Size")
+    @Description("Size of the input class in bytes")
+    int size;
+
+    // Typed as Object so callers never link against the flight recorder classes.
+    static Object start() {
+        ClassEvent event = new ClassEvent();
+        event.begin();
+        return event;
+    }
+
+    static void finish(Object handle, String operation, byte[] data) {
+        ClassEvent event = (ClassEvent)handle;
+        event.end();
+        if (event.shouldCommit()) {
+            // Only read the name for slow classes, so fast ones cost nothing extra.
+            event.className = new ClassReader(data).getClassName();
+            event.operation = operation;
+            event.size = data.length;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/*
+ * Class name filter built from include and exclude rules, tested against names in binary format {a/b/C}.
+ *
+ * Rules can be exact class names, packages, name prefixes, or globs where ? matches one character, * matches
+ * anything within a package, and ** matches anything including sub packages. Patterns of the form pkg/* and pkg/**
+ * are compiled to package lookups, anything else with a wildcard is matched as a glob.
+ *
+ * Exact class names take precedence over everything else, so a single class can be pulled out of, or back into, an excluded package.
+ * Otherwise excludes win over includes, and if there are no include rules at all every class not excluded is accepted.
+ *
+ * Testing a name does not allocate, and is safe from multiple threads once all rules are added.
+ */
+public class ClassFilter implements Predicate<String> {
+    private final Rules includes = new Rules();
+    private final Rules excludes = new Rules();
+
+    public ClassFilter include(String pattern) {
+        this.includes.add(pattern);
+        return this;
+    }
+
+    public ClassFilter exclude(String pattern) {
+        this.excludes.add(pattern);
+        return this;
+    }
+
+    /*
+     * Includes every class directly in the package, sub packages are not included. Both a/b and a.b are accepted, use an empty string for the default package.
+     */
+    public ClassFilter includePackage(String pkg) {
+        this.includes.packages.add(normalizePackage(pkg));
+        return this;
+    }
+
+    public ClassFilter excludePackage(String pkg) {
+        this.excludes.packages.add(normalizePackage(pkg));
+        return this;
+    }
+
+    public ClassFilter includePrefix(String prefix) {
+        this.includes.prefixes.add(prefix);
+        return this;
+    }
+
+    public ClassFilter excludePrefix(String prefix) {
+        this.excludes.prefixes.add(prefix);
+        return this;
+    }
+
+    @Override
+    public boolean test(String name) {
+        int len = name.length();
+        if (this.excludes.exact.contains(name, len))
+            return false;
+        if (this.includes.exact.contains(name, len))
+            return true;
+        if (this.excludes.matches(name))
+            return false;
+        return this.includes.isEmpty() || this.includes.matches(name);
+    }
+
+    private static String normalizePackage(String pkg) {
+        pkg = pkg.replace('.', '/');
+        while (pkg.endsWith("/"))
+            pkg = pkg.substring(0, pkg.length() - 1);
+        return pkg;
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') != -1 || pattern.indexOf('?') != -1;
+    }
+
+    private static class Rules {
+        private final NameSet exact = new NameSet();
+        private final NameSet packages = new NameSet();
+        private final NameSet recursive = new NameSet();
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<String> globs = new ArrayList<>();
+        private boolean all = false;
+
+        private void add(String pattern) {
+            if (!isGlob(pattern))
+                this.exact.add(pattern);
+            else if ("**".equals(pattern))
+                this.all = true;
+            else if (pattern.length() > 3 && pattern.endsWith("/**") && !isGlob(pattern.substring(0, pattern.length() - 3)))
+                this.recursive.add(pattern.substring(0, pattern.length() - 3));
+            else if (pattern.length() > 2 && pattern.endsWith("/*") && !isGlob(pattern.substring(0, pattern.length() - 2)))
+                this.packages.add(pattern.substring(0, pattern.length() - 2));
+            else if (pattern.endsWith("**") && !isGlob(pattern.substring(0, pattern.length() - 2)))
+                this.prefixes.add(pattern.substring(0, pattern.length() - 2));
+            else
+                this.globs.add(pattern);
+        }
+
+        private boolean isEmpty() {
+            return !this.all && this.exact.isEmpty() && this.packages.isEmpty() && this.recursive.isEmpty() && this.prefixes.isEmpty() && this.globs.isEmpty();
+        }
+
+        // Everything except exact names, those are checked first so they can override the other side.
+        private boolean matches(String name) {
+            if (this.all)
+                return true;
+
+            int idx = name.lastIndexOf('/');
+            if (this.packages.contains(name, idx == -1 ? 0 : idx))
+                return true;
+
+            if (!this.recursive.isEmpty()) {
+                for (int x = name.indexOf('/'); x != -1; x = name.indexOf('/', x + 1)) {
+                    if (this.recursive.contains(name, x))
+                        return true;
+                }
+            }
+
+            for (int x = 0; x < this.prefixes.size(); x++) {
+                if (name.startsWith(this.prefixes.get(x)))
+                    return true;
+            }
+
+            for (int x = 0; x < this.globs.size(); x++) {
+                if (glob(this.globs.get(x), 0, name, 0))
+                    return true;
+            }
+
+            return false;
+        }
+    }
+
+    private static boolean glob(String pattern, int pi, String name, int ni) {
+        while (pi < pattern.length()) {
+            char c = pattern.charAt(pi);
+            if (c == '*') {
+                boolean any = pi + 1 < pattern.length() && pattern.charAt(pi + 1) == '*';
+                int next = pi + (any ? 2 : 1);
+                for (int x = ni; x <= name.length(); x++) {
+                    if (glob(pattern, next, name, x))
+                        return true;
+                    if (x < name.length() && !any && name.charAt(x) == '/')
+                        return false;
+                }
+                return false;
+            }
+
+            if (ni >= name.length())
+                return false;
+            char n = name.charAt(ni);
+            if (c == '?' ? n == '/' : c != n)
+                return false;
+            pi++;
+            ni++;
+        }
+        return ni == name.length();
+    }
+
+    /*
+     * Open addressing hash set of strings, that can be queried with a prefix of a string without creating a substring.
+     */
+    private static class NameSet {
+        private String[] table = new String[16];
+        private int size = 0;
+
+        private boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        private void add(String value) {
+            if (contains(value, value.length()))
+                return;
+
+            if ((this.size + 1) * 2 > this.table.length) {
+                String[] old = this.table;
+                this.table = new String[old.length * 2];
+                for (String entry : old) {
+                    if (entry != null)
+                        insert(entry);
+                }
+            }
+            insert(value);
+            this.size++;
+        }
+
+        private void insert(String value) {
+            int mask = this.table.length - 1;
+            int idx = hash(value, value.length()) & mask;
+            while (this.table[idx] != null)
+                idx = (idx + 1) & mask;
+            this.table[idx] = value;
+        }
+
+        // Checks if the first len characters of the value are in the set.
+        private boolean contains(String value, int len) {
+            if (this.size == 0)
+                return false;
+
+            int mask = this.table.length - 1;
+            int idx = hash(value, len) & mask;
+            for (String entry = this.table[idx]; entry != null; entry = this.table[idx]) {
+                if (entry.length() == len && value.regionMatches(0, entry, 0, len))
+                    return true;
+                idx = (idx + 1) & mask;
+            }
+            return false;
+        }
+
+        private static int hash(String value, int len) {
+            int hash = 0;
+            for (int x = 0; x < len; x++)
+                hash = 31 * hash + value.charAt(x);
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
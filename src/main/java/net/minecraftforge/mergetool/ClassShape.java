@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/*
+ * Lightweight model of a class, only the parts that the merge process looks at, read without expanding any code.
+ * Line numbers are only needed to break ties between members added on both sides, so they are read on demand,
+ * and only the members another class is taking from this one are ever read in full, see readMembers.
+ */
+class ClassShape extends ClassVisitor {
+    final ClassReader reader;
+    String name;
+    String[] interfaces;
+    final List<Member> fields = new ArrayList<>();
+    final List<Member> methods = new ArrayList<>();
+    final List<InnerClassNode> inners = new ArrayList<>();
+    final Set<List<String>> innerKeys = new HashSet<>();
+    private int[] lines = null;
+    private FieldNode[] fieldNodes = null;
+    private MethodNode[] methodNodes = null;
+
+    ClassShape(byte[] data) {
+        super(Opcodes.ASM9);
+        this.reader = new ClassReader(data);
+        this.reader.accept(this, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.name = name;
+        this.interfaces = interfaces == null ? new String[0] : interfaces;
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        InnerClassNode node = new InnerClassNode(name, outerName, innerName, access);
+        this.inners.add(node);
+        this.innerKeys.add(innerKey(node));
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        this.fields.add(new Member(this, this.fields.size(), name));
+        return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        this.methods.add(new Member(this, this.methods.size(), name + descriptor));
+        return null;
+    }
+
+    static List<String> innerKey(InnerClassNode node) {
+        return Arrays.asList(node.innerName, node.name, node.outerName);
+    }
+
+    /*
+     * Inner classes from the others that this class doesn't have, in the order they are appended to this class's list.
+     */
+    List<InnerClassNode> missingInners(List<ClassShape> others) {
+        List<InnerClassNode> ret = new ArrayList<>();
+        Set<List<String>> keys = new HashSet<>(this.innerKeys);
+        for (ClassShape other : others) {
+            for (InnerClassNode node : other.inners) {
+                if (keys.add(innerKey(node)))
+                    ret.add(node);
+            }
+        }
+        return ret;
+    }
+
+    private int getLine(int method) {
+        if (this.lines == null) {
+            int[] lines = new int[this.methods.size()];
+            Arrays.fill(lines, Integer.MAX_VALUE);
+            this.reader.accept(new ClassVisitor(Opcodes.ASM9) {
+                private int index = 0;
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    int idx = this.index++;
+                    return new MethodVisitor(Opcodes.ASM9) {
+                        @Override
+                        public void visitLineNumber(int line, Label start) {
+                            if (lines[idx] == Integer.MAX_VALUE)
+                                lines[idx] = line;
+                        }
+                    };
+                }
+            }, ClassReader.SKIP_FRAMES);
+            this.lines = lines;
+        }
+        return this.lines[method];
+    }
+
+    /*
+     * Reads the members of this class that are in the merged lists in full, so they can be written into another class.
+     */
+    void readMembers(List<Member> fields, List<Member> methods) {
+        boolean[] wantFields = new boolean[this.fields.size()];
+        boolean[] wantMethods = new boolean[this.methods.size()];
+        boolean any = false;
+        for (Member member : fields) {
+            if (member.owner == this)
+                any = wantFields[member.index] = true;
+        }
+        for (Member member : methods) {
+            if (member.owner == this)
+                any = wantMethods[member.index] = true;
+        }
+
+        this.fieldNodes = new FieldNode[this.fields.size()];
+        this.methodNodes = new MethodNode[this.methods.size()];
+        if (!any)
+            return;
+
+        this.reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            private int field = 0;
+            private int method = 0;
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                int idx = this.field++;
+                if (!wantFields[idx])
+                    return null;
+                return ClassShape.this.fieldNodes[idx] = new FieldNode(access, name, descriptor, signature, value);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                int idx = this.method++;
+                if (!wantMethods[idx])
+                    return null;
+                return ClassShape.this.methodNodes[idx] = new MethodNode(access, name, descriptor, signature, exceptions);
+            }
+        }, 0);
+    }
+
+    static class Member {
+        final ClassShape owner;
+        final int index;
+        final String key;
+        // Set by Merger on anything only one side has.
+        boolean isSided = false;
+
+        private Member(ClassShape owner, int index, String key) {
+            this.owner = owner;
+            this.index = index;
+            this.key = key;
+        }
+
+        static String key(Member member) {
+            return member.key;
+        }
+
+        // Only valid once readMembers has been called on the owner with a list containing this member.
+        FieldNode getField() {
+            return this.owner.fieldNodes[this.index];
+        }
+
+        MethodNode getMethod() {
+            return this.owner.methodNodes[this.index];
+        }
+
+        static int compareNames(Member a, Member b) {
+            if (a == b) return 0;
+            if (a == null) return 1;
+            if (b == null) return -1;
+            return a.key.compareTo(b.key);
+        }
+
+        static int compareLines(Member a, Member b) {
+            if (a == b) return 0;
+            if (a == null) return 1;
+            if (b == null) return -1;
+            return a.owner.getLine(a.index) - b.owner.getLine(b.index);
+        }
+    }
+}
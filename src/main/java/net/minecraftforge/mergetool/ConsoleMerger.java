@@ -6,18 +6,30 @@ package net.minecraftforge.mergetool;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import joptsimple.ValueConversionException;
 import joptsimple.ValueConverter;
+import joptsimple.util.EnumConverter;
 import net.minecraftforge.srgutils.IMappingFile;
 import net.minecraftforge.srgutils.IMappingFile.IClass;
 
@@ -44,7 +56,68 @@ public class ConsoleMerger {
         }
     };
 
-    public static void main(String[] args) {
+    private static final ValueConverter<Integer> CompressionReader = new ValueConverter<Integer>() {
+        @Override
+        public Integer convert(String value) {
+            if ("stored".equalsIgnoreCase(value))
+                return 0;
+            if ("default".equalsIgnoreCase(value))
+                return Deflater.DEFAULT_COMPRESSION;
+            try {
+                int level = Integer.parseInt(value);
+                if (level >= 0 && level <= 9)
+                    return level;
+            } catch (NumberFormatException e) {
+                // Fall through to the error below
+            }
+            throw new ValueConversionException("Invalid compression, expected stored, default or a level from 0-9: " + value);
+        }
+
+        @Override
+        public Class<? extends Integer> valueType() {
+            return Integer.class;
+        }
+
+        @Override
+        public String valuePattern() {
+            return "stored|default|0-9";
+        }
+    };
+
+    private final File dir;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /*
+     * Runs tasks as if they were started from the given working directory, relative paths are resolved against it.
+     * Used by the daemon, so each request uses its client's directory and output.
+     */
+    ConsoleMerger(File dir, PrintStream out, PrintStream err) {
+        this.dir = dir;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && "--daemon".equals(args[0])) {
+            MergeDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        List<String> local = new ArrayList<>(Arrays.asList(args));
+        // Forward to a running daemon when there is one, it has already loaded and warmed up everything.
+        if (!local.remove("--no-daemon")) {
+            int code = MergeDaemon.forward(args, new File("").getAbsoluteFile());
+            if (code == 0)
+                return;
+            if (code > 0)
+                System.exit(code);
+        }
+
+        new ConsoleMerger(new File("").getAbsoluteFile(), System.out, System.err).run(local.toArray(new String[local.size()]));
+    }
+
+    void run(String[] args) {
         List<String> extra = new ArrayList<>();
         Tasks task = null;
 
@@ -68,35 +141,160 @@ public class ConsoleMerger {
             strip(extra.toArray(new String[extra.size()]));
     }
 
-    private static void merge(String[] args) {
-        OptionParser parser = new OptionParser();
-        OptionSpec<File> client = parser.accepts("client").withRequiredArg().ofType(File.class).required();
-        OptionSpec<File> server = parser.accepts("server").withRequiredArg().ofType(File.class).required();
-        OptionSpec<File> merged = parser.accepts("output").withRequiredArg().ofType(File.class).required();
-        OptionSpec<Boolean> inject = parser.accepts("inject").withOptionalArg().ofType(Boolean.class).defaultsTo(true);
-        OptionSpec<Void> data = parser.accepts("keep-data");
-        OptionSpec<Void> meta = parser.accepts("keep-meta");
-        OptionSpec<Void> sortInterfaces = parser.accepts("sort-interfaces");
-        OptionSpec<AnnotationVersion> anno = parser.accepts("ann").withOptionalArg().ofType(AnnotationVersion.class).withValuesConvertedBy(AnnotationReader).defaultsTo(AnnotationVersion.API);
-        OptionSpec<String> whitelist    = parser.accepts("whitelist").withRequiredArg().ofType(String.class);
-        OptionSpec<String> whitelistPkg = parser.accepts("whitelist-pkg").withRequiredArg().ofType(String.class);
-        OptionSpec<File>   whitelistMap = parser.accepts("whitelist-map").withRequiredArg().ofType(File.class);
-        OptionSpec<String> blacklist    = parser.accepts("blacklist").withRequiredArg().ofType(String.class);
-        OptionSpec<String> blacklistPkg = parser.accepts("blacklist-pkg").withRequiredArg().ofType(String.class);
-        OptionSpec<File>   blacklistMap = parser.accepts("blacklist-map").withRequiredArg().ofType(File.class);
-        OptionSpec<Void> bundled = parser.accepts("bundled");
+    private void merge(String[] args) {
+        MergeOptions opts = new MergeOptions();
 
         try {
-            OptionSet options = parser.parse(args);
+            OptionSet options = opts.parser.parse(args);
+
+            if (options.has(opts.batch)) {
+                batch(options.valueOf(opts.batch), options.has(opts.threads) ? options.valueOf(opts.threads) : 0);
+                return;
+            }
+
+            Stats stats = opts.process(options, null, 0);
+            this.out.println(opts.describe(options, stats));
+            if (options.has(opts.incremental))
+                this.out.println("Reused " + stats.get(Stats.Counter.CLASSES_REUSED) + " classes from the previous output");
+            if (options.has(opts.statsFile))
+                writeStats(options.valueOf(opts.statsFile), stats);
+        } catch (OptionException e) {
+            this.out.println("Usage: ConsoleMerger --merge --client <ClientJar> --server <ServerJar> --output <MergedJar> [--ann CPW|NMF|API] [--keep-data] [--keep-meta] [--threads <Count>] [--cache-dir <Dir>] [--cache-size <MiB>] [--incremental] [--strip-data <DataFile>] [--side-index <File>] [--side-index-format text|binary] [--compression stored|default|0-9] [--stats <JsonFile>]");
+            this.out.println("       ConsoleMerger --merge --side <Side>=<Jar> --side <Side>=<Jar>... --output <MergedJar> [--ann CPW|NMF|API] [--keep-data] [--keep-meta] [--threads <Count>] [--side-index <File>] [--side-index-format text|binary] [--compression stored|default|0-9] [--stats <JsonFile>]");
+            this.out.println("       ConsoleMerger --merge --batch <BatchFile> [--threads <Count>]");
+            e.printStackTrace(this.err);
+            sneak(e);
+        } catch (IOException e) {
+            e.printStackTrace(this.err);
+            sneak(e);
+        }
+    }
+
+    /*
+     * Options for a single merge, shared by the command line and every line of a batch file.
+     */
+    private class MergeOptions {
+        private final OptionParser parser = new OptionParser();
+        private final OptionSpec<File> batch = parser.accepts("batch").withRequiredArg().withValuesConvertedBy(fileReader());
+        // Each side is an input for an N-way merge, in the form <Side>=<Jar>, where the side is the value used in annotations, such as CLIENT.
+        private final OptionSpec<SideInput> side = parser.accepts("side").withRequiredArg().withValuesConvertedBy(sideReader());
+        private final OptionSpec<File> client = parser.accepts("client").requiredUnless(batch, side).withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<File> server = parser.accepts("server").requiredUnless(batch, side).withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<File> merged = parser.accepts("output").requiredUnless(batch).withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<Boolean> inject = parser.accepts("inject").withOptionalArg().ofType(Boolean.class).defaultsTo(true);
+        private final OptionSpec<Void> data = parser.accepts("keep-data");
+        private final OptionSpec<Void> meta = parser.accepts("keep-meta");
+        private final OptionSpec<Void> sortInterfaces = parser.accepts("sort-interfaces");
+        private final OptionSpec<AnnotationVersion> anno = parser.accepts("ann").withOptionalArg().ofType(AnnotationVersion.class).withValuesConvertedBy(AnnotationReader).defaultsTo(AnnotationVersion.API);
+        private final OptionSpec<String> whitelist    = parser.accepts("whitelist").withRequiredArg().ofType(String.class);
+        private final OptionSpec<String> whitelistPkg = parser.accepts("whitelist-pkg").withRequiredArg().ofType(String.class);
+        private final OptionSpec<File>   whitelistMap = parser.accepts("whitelist-map").withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<String> blacklist    = parser.accepts("blacklist").withRequiredArg().ofType(String.class);
+        private final OptionSpec<String> blacklistPkg = parser.accepts("blacklist-pkg").withRequiredArg().ofType(String.class);
+        private final OptionSpec<File>   blacklistMap = parser.accepts("blacklist-map").withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<Void> bundled = parser.accepts("bundled");
+        private final OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg().ofType(Integer.class);
+        private final OptionSpec<File> cacheDir = parser.accepts("cache-dir").withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<Long> cacheSize = parser.accepts("cache-size").withRequiredArg().ofType(Long.class).defaultsTo(512L); //In MiB
+        private final OptionSpec<Void> incremental = parser.accepts("incremental");
+        private final OptionSpec<File> stripData = parser.accepts("strip-data").withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<File> sideIndex = parser.accepts("side-index").withRequiredArg().withValuesConvertedBy(fileReader());
+        private final OptionSpec<SideIndex.Format> sideIndexFormat = parser.accepts("side-index-format").withRequiredArg()
+            .withValuesConvertedBy(new EnumConverter<SideIndex.Format>(SideIndex.Format.class) {}).defaultsTo(SideIndex.Format.TEXT);
+        private final OptionSpec<Integer> compression = parser.accepts("compression").withRequiredArg().withValuesConvertedBy(CompressionReader);
+        private final OptionSpec<File> statsFile = parser.accepts("stats").withRequiredArg().withValuesConvertedBy(fileReader());
+
+        /*
+         * Runs the merge described by the options, on the executor if there is one.
+         */
+        private Stats process(OptionSet options, Executor executor, int threads) throws IOException {
+            if (options.has(side)) {
+                MultiMerger merge = createMulti(options);
+                if (executor != null)
+                    merge.executor(executor).threads(threads);
+                merge.process();
+                return merge.getStats();
+            }
 
+            Merger merge = create(options);
+            if (executor != null)
+                merge.executor(executor).threads(threads);
+            merge.process();
+            return merge.getStats();
+        }
+
+        private String describe(OptionSet options, Stats stats) {
+            if (options.has(side)) {
+                return "Classes: " + stats.get(Stats.Counter.CLASSES_IDENTICAL) + " identical, " + stats.get(Stats.Counter.CLASSES_MERGED) + " merged, " +
+                    stats.get(Stats.Counter.CLASSES_SIDED) + " sided";
+            }
+            return "Shared classes: " + stats.get(Stats.Counter.CLASSES_IDENTICAL) + " identical, " + stats.get(Stats.Counter.CLASSES_CACHED) + " cached, " +
+                stats.get(Stats.Counter.CLASSES_UNCHANGED) + " unchanged, " + stats.get(Stats.Counter.CLASSES_MERGED) + " merged";
+        }
+
+        // Every jar the merge reads
+        private List<File> getInputs(OptionSet options) {
+            List<File> ret = new ArrayList<>();
+            if (options.has(side)) {
+                for (SideInput input : options.valuesOf(side))
+                    ret.add(input.jar);
+            } else {
+                ret.add(options.valueOf(client));
+                ret.add(options.valueOf(server));
+            }
+            return ret;
+        }
+
+        private MultiMerger createMulti(OptionSet options) throws IOException {
+            for (OptionSpec<?> spec : Arrays.asList(client, server, bundled, cacheDir, incremental, stripData)) {
+                if (options.has(spec))
+                    throw new IllegalArgumentException("--" + spec.options().iterator().next() + " can not be used with --side");
+            }
+
+            File merged_jar = options.valueOf(merged);
+            MultiMerger merge = new MultiMerger(merged_jar);
+            if (merged_jar.exists() && !merged_jar.delete())
+                ConsoleMerger.this.out.println("Could not delete output file: " + merged_jar);
+
+            for (SideInput input : options.valuesOf(side))
+                merge.input(input.jar, input.side);
+
+            if (options.has(anno))
+                merge.annotate(options.valueOf(anno), !options.has(inject) || options.valueOf(inject));
+
+            if (options.has(data))
+                merge.keepData();
+
+            if (options.has(meta))
+                merge.keepMeta();
+
+            if (options.has(sortInterfaces))
+                merge.sortInterfaces();
+
+            if (options.has(threads))
+                merge.threads(options.valueOf(threads));
+
+            if (options.has(compression))
+                merge.compression(options.valueOf(compression));
+
+            if (options.has(sideIndex))
+                merge.sideIndex(options.valueOf(sideIndex), options.valueOf(sideIndexFormat));
+
+            merge.filter(createFilter(options));
+            return merge;
+        }
+
+        private Merger create(OptionSet options) throws IOException {
             File client_jar = options.valueOf(client);
             File server_jar = options.valueOf(server);
             File merged_jar = options.valueOf(merged);
 
             Merger merge = new Merger(client_jar, server_jar, merged_jar);
 
-            if (merged_jar.exists() && !merged_jar.delete())
-                System.out.println("Could not delete output file: " + merged_jar);
+            if (options.has(incremental))
+                merge.incremental();
+            else if (merged_jar.exists() && !merged_jar.delete())
+                ConsoleMerger.this.out.println("Could not delete output file: " + merged_jar);
 
             if (options.has(anno))
                 merge.annotate(options.valueOf(anno), !options.has(inject) || options.valueOf(inject));
@@ -113,91 +311,325 @@ public class ConsoleMerger {
             if (options.has(sortInterfaces))
                 merge.sortInterfaces();
 
-            Predicate<String> filter = null;
-            if (options.has(whitelist) || options.has(whitelistMap)) {
-                Set<String> classes = loadList(options.valuesOf(whitelist), options.valuesOf(whitelistMap));
-                if (!classes.isEmpty())
-                    filter = classes::contains;
-            }
+            if (options.has(threads))
+                merge.threads(options.valueOf(threads));
+
+            if (options.has(compression))
+                merge.compression(options.valueOf(compression));
+
+            if (options.has(cacheDir))
+                merge.cache(options.valueOf(cacheDir), options.valueOf(cacheSize) * 1024 * 1024);
+
+            for (File data : options.valuesOf(stripData))
+                merge.strip(data);
+
+            if (options.has(sideIndex))
+                merge.sideIndex(options.valueOf(sideIndex), options.valueOf(sideIndexFormat));
 
-            if (options.has(whitelistPkg)) {
-                Set<String> pkgs = loadPackages(options.valuesOf(whitelistPkg));
-                Predicate<String> prefixes = name -> {
-                    int idx = name.lastIndexOf('/');
-                    return idx == -1 ? pkgs.contains("/") : pkgs.contains(name.substring(0, idx));
-                };
+            merge.filter(createFilter(options));
+            return merge;
+        }
+
+        private ClassFilter createFilter(OptionSet options) throws IOException {
+            ClassFilter filter = new ClassFilter();
+            for (String cls : loadList(options.valuesOf(whitelist), options.valuesOf(whitelistMap)))
+                filter.include(cls);
+            for (String pkg : options.valuesOf(whitelistPkg))
+                filter.includePackage(pkg);
+            for (String cls : loadList(options.valuesOf(blacklist), options.valuesOf(blacklistMap)))
+                filter.exclude(cls);
+            for (String pkg : options.valuesOf(blacklistPkg))
+                filter.excludePackage(pkg);
+            return filter;
+        }
+    }
 
-                if (filter == null)
-                    filter = prefixes;
-                else
-                    filter = filter.or(prefixes);
+    /*
+     * Batch files list one merge per line, using the same options as a single merge, for example:
+     *   --client 1.12.2/client.jar --server 1.12.2/server.jar --output 1.12.2/joined.jar --ann 1.12.2
+     * Comments start with #, and empty lines are ignored. Values containing spaces can be wrapped in double quotes.
+     *
+     * Every job shares one worker pool, and jobs run concurrently unless one reads or writes another's output, in which case it waits for it.
+     * Jobs that depend on a failed job are skipped. Per job --threads options are ignored in favor of the shared pool.
+     */
+    private void batch(File file, int threads) throws IOException {
+        List<BatchJob> jobs = loadBatch(file);
+        if (threads < 1)
+            threads = Runtime.getRuntime().availableProcessors();
+        int poolSize = threads;
+
+        ExecutorService workers = Executors.newFixedThreadPool(poolSize);
+        // Jobs mostly wait on the workers, so they get their own threads. Running them on the worker pool could deadlock.
+        ExecutorService runners = Executors.newFixedThreadPool(Math.max(1, Math.min(poolSize, jobs.size())));
+        try {
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (BatchJob job : jobs) {
+                List<CompletableFuture<Boolean>> deps = new ArrayList<>();
+                for (int x = 0; x < results.size(); x++) {
+                    if (job.dependsOn(jobs.get(x)))
+                        deps.add(results.get(x));
+                }
+
+                results.add(CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[deps.size()])).thenApplyAsync(v -> {
+                    for (CompletableFuture<Boolean> dep : deps) {
+                        if (!dep.join()) {
+                            job.report("Skipped, depends on a failed job");
+                            return false;
+                        }
+                    }
+                    return job.run(workers, poolSize);
+                }, runners));
+            }
+
+            int failed = 0;
+            for (CompletableFuture<Boolean> result : results) {
+                if (!result.join())
+                    failed++;
             }
 
-            if (filter == null)
-                filter = name -> true;
+            this.out.println("Batch finished: " + (jobs.size() - failed) + " merged, " + failed + " failed or skipped");
+            if (failed != 0)
+                throw new IOException(failed + " of " + jobs.size() + " batch jobs failed");
+        } finally {
+            runners.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
 
-            if (options.has(blacklist) || options.has(blacklistMap)) {
-                Set<String> classes = loadList(options.valuesOf(blacklist), options.valuesOf(blacklistMap));
-                if (!classes.isEmpty())
-                    filter.and(name -> !classes.contains(name));
+    private List<BatchJob> loadBatch(File file) throws IOException {
+        List<BatchJob> ret = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        for (int x = 0; x < lines.size(); x++) {
+            String line = lines.get(x);
+            int idx = line.indexOf('#');
+            if (idx != -1)
+                line = line.substring(0, idx);
+            if (line.trim().isEmpty())
+                continue;
+
+            MergeOptions opts = new MergeOptions();
+            try {
+                OptionSet options = opts.parser.parse(splitArgs(line));
+                if (options.has(opts.batch))
+                    throw new IOException("Invalid batch line " + (x + 1) + ", batch files can not be nested");
+                ret.add(new BatchJob(ret.size() + 1, opts, options));
+            } catch (OptionException e) {
+                throw new IOException("Invalid batch line " + (x + 1) + ": " + e.getMessage(), e);
             }
+        }
+        return ret;
+    }
 
-            if (options.has(blacklistPkg)) {
-                Set<String> pkgs = loadPackages(options.valuesOf(blacklistPkg));
-                filter.and(name -> {
-                    int idx = name.lastIndexOf('/');
-                    return idx == -1 ? !pkgs.contains("/") : !pkgs.contains(name.substring(0, idx));
-                });
+    // Splits on whitespace, keeping anything in double quotes together.
+    private static String[] splitArgs(String line) {
+        List<String> ret = new ArrayList<>();
+        StringBuilder buf = new StringBuilder();
+        boolean quoted = false;
+        boolean token = false;
+        for (int x = 0; x < line.length(); x++) {
+            char c = line.charAt(x);
+            if (c == '"') {
+                quoted = !quoted;
+                token = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (token)
+                    ret.add(buf.toString());
+                buf.setLength(0);
+                token = false;
+            } else {
+                buf.append(c);
+                token = true;
             }
+        }
+        if (token)
+            ret.add(buf.toString());
+        return ret.toArray(new String[ret.size()]);
+    }
 
-            merge.filter(filter);
+    private class BatchJob {
+        private final int index;
+        private final MergeOptions opts;
+        private final OptionSet options;
+        private final List<File> inputs = new ArrayList<>();
+        private final File output;
+
+        private BatchJob(int index, MergeOptions opts, OptionSet options) {
+            this.index = index;
+            this.opts = opts;
+            this.options = options;
+            for (File input : opts.getInputs(options))
+                this.inputs.add(input.getAbsoluteFile());
+            this.output = options.valueOf(opts.merged).getAbsoluteFile();
+        }
 
-            merge.process();
-        } catch (OptionException e) {
-            System.out.println("Usage: ConsoleMerger --merge --client <ClientJar> --server <ServerJar> --output <MergedJar> [--ann CPW|NMF|API] [--keep-data] [--keep-meta]");
-            e.printStackTrace();
-            sneak(e);
-        } catch (IOException e) {
-            e.printStackTrace();
-            sneak(e);
+        // Either job reading the other's output, or both writing the same file, means they can't run at the same time.
+        private boolean dependsOn(BatchJob other) {
+            return this.inputs.contains(other.output) || this.output.equals(other.output) || other.inputs.contains(this.output);
+        }
+
+        private boolean run(Executor workers, int threads) {
+            long start = System.nanoTime();
+            try {
+                Stats stats = this.opts.process(this.options, workers, threads);
+                if (this.options.has(this.opts.statsFile))
+                    writeStats(this.options.valueOf(this.opts.statsFile), stats);
+
+                report("Merged in " + (System.nanoTime() - start) / 1_000_000 + "ms, " + this.opts.describe(this.options, stats));
+                return true;
+            } catch (Exception e) {
+                report("Failed: " + e);
+                e.printStackTrace(ConsoleMerger.this.err);
+                return false;
+            }
+        }
+
+        private void report(String message) {
+            ConsoleMerger.this.out.println("[" + this.index + "] " + this.output + ": " + message);
         }
     }
 
-    private static void strip(String[] args) {
+    private void strip(String[] args) {
         OptionParser parser = new OptionParser();
-        OptionSpec<File> input = parser.accepts("input").withRequiredArg().ofType(File.class).required();
-        OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).required();
-        OptionSpec<File> data = parser.accepts("data").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> jobs = parser.accepts("jobs").withRequiredArg().withValuesConvertedBy(fileReader());
+        OptionSpec<File> input = parser.accepts("input").requiredUnless(jobs).withRequiredArg().withValuesConvertedBy(fileReader());
+        OptionSpec<File> output = parser.accepts("output").requiredUnless(jobs).withRequiredArg().withValuesConvertedBy(fileReader());
+        OptionSpec<File> data = parser.accepts("data").withRequiredArg().withValuesConvertedBy(fileReader()).required();
+        OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> compression = parser.accepts("compression").withRequiredArg().withValuesConvertedBy(CompressionReader);
+        OptionSpec<File> statsFile = parser.accepts("stats").withRequiredArg().withValuesConvertedBy(fileReader());
 
         try {
             OptionSet options = parser.parse(args);
 
-            File input_jar = options.valueOf(input).getAbsoluteFile();
-            File output_jar = options.valueOf(output).getAbsoluteFile();
-
             try {
-                System.out.println("Input:  " + input_jar);
-                System.out.println("Output: " + output_jar);
+                Map<File, File> targets = new LinkedHashMap<>();
+                if (options.has(input) || options.has(output)) {
+                    if (!options.has(input) || !options.has(output))
+                        throw new IllegalArgumentException("--input and --output must be used together");
+                    targets.put(options.valueOf(input).getAbsoluteFile(), options.valueOf(output).getAbsoluteFile());
+                }
+                for (File jobsF : options.valuesOf(jobs))
+                    targets.putAll(loadJobs(jobsF));
+
+                for (Map.Entry<File, File> job : targets.entrySet()) {
+                    this.out.println("Input:  " + job.getKey());
+                    this.out.println("Output: " + job.getValue());
+                }
                 Stripper strip = new Stripper();
 
+                if (options.has(threads))
+                    strip.threads(options.valueOf(threads));
+
+                if (options.has(compression))
+                    strip.compression(options.valueOf(compression));
+
                 for (File dataF : options.valuesOf(data)) {
-                    System.out.println("Data:   " + dataF.getAbsoluteFile());
+                    this.out.println("Data:   " + dataF.getAbsoluteFile());
                     strip.loadData(dataF);
                 }
 
-                if (output_jar.exists() && !output_jar.delete())
-                    System.out.println("Could not delete output file: " + output_jar);
+                for (File output_jar : targets.values()) {
+                    if (output_jar.exists() && !output_jar.delete())
+                        this.out.println("Could not delete output file: " + output_jar);
+                }
 
-                strip.process(input_jar, output_jar);
+                Stats stats = strip.process(targets);
+                if (options.has(statsFile))
+                    writeStats(options.valueOf(statsFile), stats);
             } catch (IOException e) {
-                e.printStackTrace();
+                e.printStackTrace(this.err);
             }
         } catch (OptionException e) {
-            System.out.println("Usage: ConsoleMerger --strip --input <InputJar> --output <OutputJar> --data <DataText>...");
-            e.printStackTrace();
+            this.out.println("Usage: ConsoleMerger --strip (--input <InputJar> --output <OutputJar> | --jobs <JobsFile>...) --data <DataText>... [--threads <Count>] [--compression stored|default|0-9] [--stats <JsonFile>]");
+            e.printStackTrace(this.err);
         }
     }
 
+    private void writeStats(File file, Stats stats) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+        Files.write(file.toPath(), stats.toJson().getBytes(StandardCharsets.UTF_8));
+        this.out.println("Stats:  " + file.getAbsoluteFile());
+    }
+
+    /*
+     * Jobs files list one jar per line, as the input and output paths separated by a tab.
+     * Comments start with #, and empty lines are ignored. Relative paths are resolved against the working directory.
+     */
+    private Map<File, File> loadJobs(File file) throws IOException {
+        Map<File, File> ret = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            int idx = line.indexOf('#');
+            if (idx != -1)
+                line = line.substring(0, idx);
+            if (line.trim().isEmpty())
+                continue;
+
+            String[] pts = line.split("\t");
+            if (pts.length != 2)
+                throw new IOException("Invalid jobs line, expected <input>\\t<output>: " + line);
+            ret.put(resolve(pts[0].trim()), resolve(pts[1].trim()));
+        }
+        return ret;
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(this.dir, path);
+    }
+
+    // Files from the command line, resolved against the working directory of the task rather than the JVM.
+    private ValueConverter<File> fileReader() {
+        return new ValueConverter<File>() {
+            @Override
+            public File convert(String value) {
+                return resolve(value);
+            }
+
+            @Override
+            public Class<? extends File> valueType() {
+                return File.class;
+            }
+
+            @Override
+            public String valuePattern() {
+                return null;
+            }
+        };
+    }
+
+    private ValueConverter<SideInput> sideReader() {
+        return new ValueConverter<SideInput>() {
+            @Override
+            public SideInput convert(String value) {
+                int idx = value.indexOf('=');
+                if (idx <= 0 || idx == value.length() - 1)
+                    throw new ValueConversionException("Invalid side, expected <Side>=<Jar>: " + value);
+                return new SideInput(value.substring(0, idx), resolve(value.substring(idx + 1)));
+            }
+
+            @Override
+            public Class<? extends SideInput> valueType() {
+                return SideInput.class;
+            }
+
+            @Override
+            public String valuePattern() {
+                return "<Side>=<Jar>";
+            }
+        };
+    }
+
+    private static class SideInput {
+        private final String side;
+        private final File jar;
+
+        private SideInput(String side, File jar) {
+            this.side = side;
+            this.jar = jar;
+        }
+    }
 
     private static Set<String> loadList(List<String> strings, List<File> files) throws IOException {
         Set<String> classes = new HashSet<>();
@@ -212,16 +644,6 @@ public class ConsoleMerger {
         return classes;
     }
 
-    private static Set<String> loadPackages(List<String> strings) {
-        Set<String> pkgs = new HashSet<>();
-        for (String value : strings) {
-            if (!value.endsWith("/"))
-                value += '/';
-            pkgs.add(value);
-        }
-        return pkgs;
-    }
-
     @SuppressWarnings("unchecked")
     private static <E extends Throwable, R> R sneak(Throwable e) throws E {
         throw (E)e;
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/*
+ * Destination for the entries produced by a merge or strip. Entries are prepared on worker threads, in whatever form the destination wants them,
+ * and then written one at a time in order. ZipWriter is the main implementation, see JarSink for the others.
+ */
+abstract class EntryWriter implements Closeable {
+    protected final Stats stats;
+
+    protected EntryWriter(Stats stats) {
+        this.stats = stats;
+    }
+
+    /*
+     * Prepares a new entry from uncompressed data, level is the compression level, which is ignored by anything that isn't writing a zip.
+     * This is safe to call from any thread.
+     */
+    abstract ZipWriter.Entry newEntry(String name, long dosTime, byte[] data, int level);
+
+    /*
+     * Prepares an entry copied from another zip, without recompressing it if the destination is a zip.
+     * This is safe to call from any thread.
+     */
+    abstract ZipWriter.Entry copyEntry(String name, long dosTime, ZipReader reader, ZipReader.Entry entry) throws IOException;
+
+    abstract void write(ZipWriter.Entry entry) throws IOException;
+
+    /*
+     * Runs the tasks and writes the entries they produce in order. With more than one thread, or an executor,
+     * a bounded window of tasks runs ahead on the pool while the oldest one is written, so the output is the same regardless of the thread count.
+     * If anything fails, the tasks still in the window are cancelled, and any that already started are waited for, so nothing is left running
+     * against inputs the caller is about to close.
+     */
+    public void writeAll(List<Callable<ZipWriter.Entry>> tasks, int threads, Executor executor) throws IOException {
+        if (executor == null && threads <= 1) {
+            for (Callable<ZipWriter.Entry> task : tasks)
+                write(call(task));
+            return;
+        }
+
+        ExecutorService owned = executor == null ? Executors.newFixedThreadPool(threads) : null;
+        Executor exec = owned == null ? executor : owned;
+        Deque<Task> pending = new ArrayDeque<>();
+        try {
+            int window = Math.max(threads, 1) * 4;
+            int next = 0;
+            for (int x = 0; x < tasks.size(); x++) {
+                while (next < tasks.size() && pending.size() < window) {
+                    Task task = new Task(tasks.get(next++));
+                    exec.execute(task);
+                    pending.add(task);
+                }
+
+                write(get(pending.poll()));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            for (Task task : pending)
+                task.abort();
+            throw e;
+        } finally {
+            if (owned != null)
+                owned.shutdownNow();
+        }
+    }
+
+    // Tracks whether the task ever started, so an abort only has to wait for the ones that did.
+    private static class Task extends FutureTask<ZipWriter.Entry> {
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private int state = WAITING;
+
+        private Task(Callable<ZipWriter.Entry> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (this.state != WAITING)
+                    return;
+                this.state = RUNNING;
+            }
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    this.state = DONE;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void abort() {
+            cancel(true);
+            boolean interrupted = false;
+            synchronized (this) {
+                if (this.state == WAITING)
+                    this.state = DONE;
+                while (this.state != DONE) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static <T> T get(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while preparing zip entries", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipException;
+
+/*
+ * Output of a merge or strip. Either a jar, a directory of loose files, or a callback that is handed each entry as soon as it is ready.
+ * Entries are always produced in the same order, which is the order they would be written to a jar.
+ */
+public abstract class JarSink {
+    JarSink() {}
+
+    public static JarSink jar(File file) {
+        return new JarSink() {
+            @Override
+            EntryWriter open(Stats stats) throws IOException {
+                return new ZipWriter(new FileOutputStream(file), stats);
+            }
+
+            @Override
+            File getFile() {
+                return file;
+            }
+        };
+    }
+
+    public static JarSink jar(Path path) {
+        return jar(path.toFile());
+    }
+
+    /*
+     * Writes a jar to the stream, which is closed once the jar is finished.
+     */
+    public static JarSink jar(OutputStream out) {
+        return new JarSink() {
+            @Override
+            EntryWriter open(Stats stats) {
+                return new ZipWriter(out, stats);
+            }
+        };
+    }
+
+    /*
+     * Writes every entry as a file in the directory, uncompressed. Files that already exist are replaced, anything else in the directory is left alone.
+     */
+    public static JarSink directory(Path dir) {
+        return new JarSink() {
+            @Override
+            EntryWriter open(Stats stats) throws IOException {
+                Files.createDirectories(dir);
+                return new DirectoryWriter(dir.toAbsolutePath().normalize(), stats);
+            }
+        };
+    }
+
+    /*
+     * Hands every entry to the consumer as soon as it is ready, with its path in the jar and its uncompressed data.
+     * The consumer is always called from one thread at a time, in the order the entries would be written to a jar.
+     */
+    public static JarSink callback(BiConsumer<String, byte[]> consumer) {
+        return new JarSink() {
+            @Override
+            EntryWriter open(Stats stats) {
+                return new CallbackWriter(consumer, stats);
+            }
+        };
+    }
+
+    abstract EntryWriter open(Stats stats) throws IOException;
+
+    // The jar file this writes to, if there is one, so it can be used for things that only make sense on disk.
+    File getFile() {
+        return null;
+    }
+
+    /*
+     * Base for writers that want the uncompressed data. Entries are stored rather than compressed, and copies are inflated on the worker threads.
+     */
+    private static abstract class LooseWriter extends EntryWriter {
+        private final Set<String> names = new HashSet<>();
+
+        private LooseWriter(Stats stats) {
+            super(stats);
+        }
+
+        @Override
+        ZipWriter.Entry newEntry(String name, long dosTime, byte[] data, int level) {
+            return ZipWriter.compress(name, dosTime, data, 0);
+        }
+
+        @Override
+        ZipWriter.Entry copyEntry(String name, long dosTime, ZipReader reader, ZipReader.Entry entry) throws IOException {
+            return ZipWriter.compress(name, dosTime, reader.read(entry), 0);
+        }
+
+        @Override
+        void write(ZipWriter.Entry entry) throws IOException {
+            if (!this.names.add(entry.getName()))
+                throw new ZipException("duplicate entry: " + entry.getName());
+
+            long start = System.nanoTime();
+            byte[] data = entry.getData();
+            write(entry.getName(), data);
+            if (this.stats != null) {
+                this.stats.time(Stats.Phase.WRITE, start);
+                this.stats.add(Stats.Counter.BYTES_OUT, data.length);
+            }
+        }
+
+        abstract void write(String name, byte[] data) throws IOException;
+
+        @Override
+        public void close() throws IOException {
+            // Every entry is handed off as soon as it is written, there is nothing left to finish.
+        }
+    }
+
+    private static class DirectoryWriter extends LooseWriter {
+        private final Path root;
+
+        private DirectoryWriter(Path root, Stats stats) {
+            super(stats);
+            this.root = root;
+        }
+
+        @Override
+        void write(String name, byte[] data) throws IOException {
+            Path target = this.root.resolve(name).normalize();
+            // Entry names come from the inputs, never let one write outside the directory.
+            if (!target.startsWith(this.root) || target.equals(this.root))
+                throw new ZipException("Invalid entry name: " + name);
+
+            if (name.endsWith("/")) {
+                Files.createDirectories(target);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.write(target, data);
+            }
+        }
+    }
+
+    private static class CallbackWriter extends LooseWriter {
+        private final BiConsumer<String, byte[]> consumer;
+
+        private CallbackWriter(BiConsumer<String, byte[]> consumer, Stats stats) {
+            super(stats);
+            this.consumer = consumer;
+        }
+
+        @Override
+        void write(String name, byte[] data) {
+            this.consumer.accept(name, data);
+        }
+    }
+}
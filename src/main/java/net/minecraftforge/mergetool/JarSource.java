@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Input for a merge or strip. Either a jar on disk, a jar that is already in memory, a jar read from a stream, or a set of entries that were never zipped at all,
+ * so tools that already hold the jars in memory don't need to write them out first.
+ */
+public abstract class JarSource {
+    JarSource() {}
+
+    public static JarSource of(File file) {
+        return new FileSource(file);
+    }
+
+    public static JarSource of(Path path) {
+        return new FileSource(path.toFile());
+    }
+
+    /*
+     * A complete jar file held in memory, from the buffer's position to its limit. The buffer is not modified, and may be direct or memory mapped.
+     */
+    public static JarSource of(ByteBuffer zip) {
+        ByteBuffer buf = zip.duplicate();
+        return new JarSource() {
+            @Override
+            ZipReader open(SpillStore spill) throws IOException {
+                return new ZipReader(buf);
+            }
+
+            @Override
+            public String toString() {
+                return "ByteBuffer[" + buf.remaining() + " bytes]";
+            }
+        };
+    }
+
+    /*
+     * Entries keyed by their path in the jar, such as "net/minecraft/Foo.class". The arrays are not copied, so they must not be modified until processing finishes.
+     */
+    public static JarSource of(Map<String, byte[]> entries) {
+        Map<String, byte[]> copy = Collections.unmodifiableMap(new LinkedHashMap<>(entries));
+        return new JarSource() {
+            @Override
+            ZipReader open(SpillStore spill) {
+                return new ZipReader(copy);
+            }
+
+            @Override
+            public String toString() {
+                return "Entries[" + copy.size() + ']';
+            }
+        };
+    }
+
+    /*
+     * A jar read from a stream, such as a download. Zips can't be read from the front, so the stream is read in full when processing starts,
+     * into the tool's SpillStore, and closed. It can only be processed once.
+     */
+    public static JarSource of(InputStream stream) {
+        AtomicBoolean opened = new AtomicBoolean();
+        return new JarSource() {
+            @Override
+            ZipReader open(SpillStore spill) throws IOException {
+                if (opened.getAndSet(true))
+                    throw new IllegalStateException("Stream input has already been read");
+                try (InputStream in = stream) {
+                    return spill.open(in, -1);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "InputStream[" + stream + ']';
+            }
+        };
+    }
+
+    // Jars that can't be read in place are kept in the spill store until the reader is closed.
+    abstract ZipReader open(SpillStore spill) throws IOException;
+
+    // The file this is read from, if there is one, so it can be used for things that only make sense on disk.
+    File getFile() {
+        return null;
+    }
+
+    private static class FileSource extends JarSource {
+        private final File file;
+
+        private FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        ZipReader open(SpillStore spill) throws IOException {
+            return new ZipReader(this.file);
+        }
+
+        @Override
+        File getFile() {
+            return this.file;
+        }
+
+        @Override
+        public String toString() {
+            return this.file.toString();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/*
+ * Aligns the member lists of two versions of a class, used by both Merger and MultiMerger.
+ *
+ * Members are matched by key, anything only on one side is inserted just before the next member both sides have in common.
+ * When both sides add something at the same place, the comparator decides which goes first, and ties go to the first side.
+ * Keys are computed once, and the result is built in a single pass so large classes stay linear.
+ */
+final class MemberAligner {
+    private MemberAligner() {}
+
+    interface OneSided<T> {
+        void accept(T member, boolean isFirst);
+    }
+
+    /*
+     * Returns the aligned list, members both sides have are taken from the first list. Anything only one side has is
+     * passed to oneSided, if it isn't null, in the order it is added. The comparator has to sort nulls last.
+     * Throws IllegalStateException if the sides don't agree on the order of the members they share.
+     */
+    static <T> List<T> align(List<T> first, List<T> second, Function<T, String> key, Comparator<T> compare, OneSided<T> oneSided) {
+        // A null entry on the end of each list means we don't have to handle running off the end in a special way
+        int fSize = first.size() + 1;
+        int sSize = second.size() + 1;
+        String[] fKeys = new String[fSize];
+        String[] sKeys = new String[sSize];
+        Set<String> sKeySet = new HashSet<>(sSize * 2);
+        for (int x = 0; x < fSize - 1; x++)
+            fKeys[x] = key.apply(first.get(x));
+        for (int x = 0; x < sSize; x++) {
+            sKeys[x] = x < sSize - 1 ? key.apply(second.get(x)) : null;
+            sKeySet.add(sKeys[x]);
+        }
+
+        String[] common = new String[fSize];
+        int commonSize = 0;
+        for (String fk : fKeys) {
+            if (sKeySet.contains(fk))
+                common[commonSize++] = fk;
+        }
+
+        List<T> ret = new ArrayList<>(fSize + sSize);
+        int fi = 0, si = 0, ci = 0;
+        while (fi < fSize) {
+            if (si >= sSize || ci >= commonSize)
+                throw new IllegalStateException("merged list is in bad state: " + fKeys[fi] + " " + fi + " " + si + " " + ci);
+
+            T ft = fi < fSize - 1 ? first.get(fi) : null;
+            T st = si < sSize - 1 ? second.get(si) : null;
+            String fk = fKeys[fi];
+            String sk = sKeys[si];
+            String ck = common[ci];
+
+            if (Objects.equals(fk, sk)) {
+                if (!Objects.equals(fk, ck))
+                    throw new IllegalStateException("merged list is in bad state: " + fk + " " + sk + " " + ck);
+                ret.add(ft);
+                fi++;
+                si++;
+                ci++;
+            } else if (Objects.equals(sk, ck) || (!Objects.equals(fk, ck) && compare.compare(ft, st) <= 0)) {
+                //Technically the compare should be <0 and we special case when they can't agree who goes first.. but for now just push the first side's.
+                if (oneSided != null)
+                    oneSided.accept(ft, true);
+                ret.add(ft);
+                fi++;
+            } else {
+                if (oneSided != null)
+                    oneSided.accept(st, false);
+                ret.add(st);
+                si++;
+            }
+        }
+
+        if (si < sSize || ci < commonSize)
+            throw new IllegalStateException("merged list is in bad state: " + ret.size() + " " + ci);
+
+        ret.remove(ret.size() - 1); // removing the null
+        return ret;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * On disk cache of merged classes, keyed by the hash of both inputs and every option that changes the merged bytes.
+ * Entries are touched when they are used, and the least recently used ones are removed once the cache grows past its size limit.
+ */
+class MergeCache {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Temp files this old are left over from a run that died mid write, anything newer may still be being written by another run.
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final Path root;
+    private final long maxSize;
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    MergeCache(File root, long maxSize) {
+        this.root = root.toPath();
+        this.maxSize = maxSize;
+    }
+
+    public String getKey(byte[] client, byte[] server, AnnotationVersion annotation, boolean sortInterfaces) {
+        return getKey(client, server, annotation, sortInterfaces, null);
+    }
+
+    /*
+     * Strip is the hash of the Stripper rules applied to the class while merging, or null if it isn't stripped.
+     */
+    String getKey(byte[] client, byte[] server, AnnotationVersion annotation, boolean sortInterfaces, String strip) {
+        MessageDigest digest = sha256();
+
+        String header = Merger.OUTPUT_VERSION + ':' + (annotation == null ? "none" : annotation.name()) + ':' + sortInterfaces + ':' +
+            (strip == null ? "" : strip + ':') + client.length + ':';
+        digest.update(header.getBytes(StandardCharsets.UTF_8));
+        digest.update(client);
+        digest.update(server);
+
+        return hex(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Missing SHA-256 MessageDigest", e);
+        }
+    }
+
+    static String hex(byte[] hash) {
+        char[] ret = new char[hash.length * 2];
+        for (int x = 0; x < hash.length; x++) {
+            ret[x * 2]     = HEX[(hash[x] >> 4) & 0xF];
+            ret[x * 2 + 1] = HEX[hash[x] & 0xF];
+        }
+        return new String(ret);
+    }
+
+    /*
+     * Where the bundled server jar with this SHA-256 hash is extracted to, so later runs can reuse it. Trimmed along with everything else.
+     */
+    Path getBundledJar(String hash) {
+        return this.root.resolve("bundled").resolve(hash + ".jar");
+    }
+
+    private Path getPath(String key) {
+        return this.root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /*
+     * Returns the cached data, or null if there is no entry for this key.
+     */
+    public byte[] get(String key) {
+        Path path = getPath(key);
+        try {
+            byte[] ret = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return ret;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            return null; // Unreadable entries are treated as a miss, they will be replaced by the next put.
+        }
+    }
+
+    /*
+     * Stores the data for this key. The cache is only an optimization, so failures, such as a full disk or a read only directory, are logged and otherwise ignored.
+     */
+    public void put(String key, byte[] data) {
+        Path path = getPath(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(path.getParent());
+            // Write to a temp file first, so other threads or processes never see a partial entry.
+            tmp = Files.createTempFile(path.getParent(), key, TEMP_SUFFIX);
+            Files.write(tmp, data);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            warn("Could not write merge cache entry " + path, e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // Left for a later trim to clean up
+                }
+            }
+        }
+    }
+
+    /*
+     * Removes the least recently used entries until the cache fits within its size limit.
+     * Temp files are skipped, as other runs sharing the cache may still be writing them, unless they are old enough to have been abandoned.
+     * Like put, failures are logged and ignored, they never fail the merge that is trimming.
+     */
+    public void trim() {
+        try {
+            trimFiles();
+        } catch (IOException e) {
+            warn("Could not trim merge cache " + this.root, e);
+        }
+    }
+
+    private void trimFiles() throws IOException {
+        if (!Files.isDirectory(this.root))
+            return;
+
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attrs = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(this.root)) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir))
+                    continue;
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes attr;
+                        try {
+                            attr = Files.readAttributes(entry, BasicFileAttributes.class);
+                        } catch (NoSuchFileException e) {
+                            continue; // Moved or removed by another run using the same cache, such as a concurrent batch job.
+                        }
+                        if (entry.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                            if (attr.lastModifiedTime().toMillis() < now - STALE_TEMP_MILLIS)
+                                Files.deleteIfExists(entry);
+                            continue;
+                        }
+                        files.add(entry);
+                        attrs.add(attr);
+                        total += attr.size();
+                    }
+                }
+            }
+        }
+
+        if (total <= this.maxSize)
+            return;
+
+        List<Integer> order = new ArrayList<>(files.size());
+        for (int x = 0; x < files.size(); x++)
+            order.add(x);
+        order.sort(Comparator.comparing(x -> attrs.get(x).lastModifiedTime()));
+
+        for (int idx : order) {
+            if (total <= this.maxSize)
+                break;
+            try {
+                Files.deleteIfExists(files.get(idx));
+            } catch (IOException e) {
+                warn("Could not remove merge cache entry " + files.get(idx), e);
+                continue;
+            }
+            total -= attrs.get(idx).size();
+        }
+    }
+
+    // Only the first failure is logged, a full disk would otherwise log every class.
+    private void warn(String message, IOException e) {
+        if (this.warned.compareAndSet(false, true))
+            System.err.println(message + ": " + e + ", further cache errors will not be logged");
+    }
+}
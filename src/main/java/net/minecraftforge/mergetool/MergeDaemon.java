@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/*
+ * Keeps a warm JVM around, so repeated merges and strips skip startup, class loading and JIT warmup.
+ *
+ * The daemon listens on a loopback port, and writes the port and a random token to a file in the user's home directory
+ * that only they can read. ConsoleMerger checks for that file, and forwards its arguments and working directory when it exists.
+ * Output is streamed back as the task runs, followed by an exit code. The file name includes the version, so a client only
+ * ever talks to a daemon running the same code.
+ *
+ * Each connection sends: token, working directory, argument count, arguments.
+ * The daemon replies with frames of a type byte and payload, stdout or stderr data, and finally the exit code.
+ */
+class MergeDaemon {
+    private static final int FRAME_OUT = 1;
+    private static final int FRAME_ERR = 2;
+    private static final int FRAME_EXIT = 3;
+    private static final String STOP = "--stop";
+
+    private final ServerSocket socket;
+    private final String token;
+    private final long idleTimeout;
+    private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "MergeDaemon Request");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastUsed = System.nanoTime();
+    private volatile boolean stopped = false;
+
+    private MergeDaemon(ServerSocket socket, String token, long idleTimeout) {
+        this.socket = socket;
+        this.token = token;
+        this.idleTimeout = idleTimeout;
+    }
+
+    static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Long> idle = parser.accepts("idle-timeout").withRequiredArg().ofType(Long.class).defaultsTo(180L); //In minutes
+        OptionSpec<Void> stop = parser.accepts("stop");
+
+        OptionSet options;
+        try {
+            options = parser.parse(args);
+        } catch (OptionException e) {
+            System.out.println("Usage: ConsoleMerger --daemon [--idle-timeout <Minutes>] [--stop]");
+            throw e;
+        }
+
+        if (options.has(stop)) {
+            int code = forward(new String[] { STOP }, new File("").getAbsoluteFile());
+            System.out.println(code < 0 ? "No daemon running" : "Daemon stopped");
+            return;
+        }
+
+        long timeout = TimeUnit.MINUTES.toNanos(options.valueOf(idle));
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            StringBuilder token = new StringBuilder();
+            for (byte b : random)
+                token.append(String.format("%02x", b & 0xFF));
+
+            MergeDaemon daemon = new MergeDaemon(socket, token.toString(), timeout);
+            File info = getInfoFile();
+            writeInfo(info, socket.getLocalPort(), daemon.token);
+            System.out.println("MergeTool daemon listening on port " + socket.getLocalPort());
+            try {
+                daemon.serve();
+            } finally {
+                // Another daemon may have replaced it since, so only remove the file if it is still ours.
+                Properties props = readInfo(info);
+                if (props != null && daemon.token.equals(props.getProperty("token")))
+                    Files.deleteIfExists(info.toPath());
+                daemon.handlers.shutdownNow();
+            }
+        }
+        System.out.println("MergeTool daemon stopped");
+    }
+
+    private void serve() throws IOException {
+        // Wake up regularly, so the idle timeout is noticed even when nothing connects.
+        this.socket.setSoTimeout((int)Math.min(TimeUnit.MINUTES.toMillis(1), Math.max(1, TimeUnit.NANOSECONDS.toMillis(this.idleTimeout))));
+        while (!this.stopped) {
+            Socket client;
+            try {
+                client = this.socket.accept();
+            } catch (SocketTimeoutException e) {
+                if (this.active.get() == 0 && System.nanoTime() - this.lastUsed > this.idleTimeout)
+                    break;
+                continue;
+            } catch (SocketException e) {
+                if (this.stopped)
+                    break;
+                throw e;
+            }
+            this.active.incrementAndGet();
+            this.handlers.execute(() -> {
+                try {
+                    handle(client);
+                } finally {
+                    this.lastUsed = System.nanoTime();
+                    this.active.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            String token = in.readUTF();
+            if (!MessageDigest.isEqual(this.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)))
+                return;
+
+            File dir = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int x = 0; x < args.length; x++)
+                args[x] = in.readUTF();
+
+            if (args.length == 1 && STOP.equals(args[0])) {
+                this.stopped = true;
+                writeExit(out, 0);
+                this.socket.close();
+                return;
+            }
+
+            int code = 0;
+            try (PrintStream stdout = new PrintStream(new FrameStream(out, FRAME_OUT), true, "UTF-8");
+                 PrintStream stderr = new PrintStream(new FrameStream(out, FRAME_ERR), true, "UTF-8")) {
+                try {
+                    new ConsoleMerger(dir, stdout, stderr).run(args);
+                } catch (Throwable t) {
+                    t.printStackTrace(stderr);
+                    code = 1;
+                }
+            }
+            writeExit(out, code);
+        } catch (IOException e) {
+            // The client went away, there is nobody left to report to.
+        }
+    }
+
+    private static void writeExit(DataOutputStream out, int code) throws IOException {
+        synchronized (out) {
+            out.writeByte(FRAME_EXIT);
+            out.writeInt(code);
+            out.flush();
+        }
+    }
+
+    /*
+     * Sends the arguments to a running daemon, and copies its output to this process.
+     * Returns the exit code of the task, or -1 if there is no daemon to forward to, in which case the task should run locally.
+     */
+    static int forward(String[] args, File dir) {
+        Properties props = readInfo(getInfoFile());
+        if (props == null)
+            return -1;
+
+        int port;
+        try {
+            port = Integer.parseInt(props.getProperty("port", ""));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+        } catch (IOException e) {
+            // Not running anymore, or something else is on the port, either way run locally.
+            closeQuietly(socket);
+            return -1;
+        }
+
+        boolean started = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeUTF(props.getProperty("token", ""));
+            out.writeUTF(dir.getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args)
+                out.writeUTF(arg);
+            out.flush();
+
+            while (true) {
+                int type = in.readByte();
+                started = true;
+                if (type == FRAME_EXIT)
+                    return in.readInt();
+
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                PrintStream target = type == FRAME_ERR ? System.err : System.out;
+                target.write(data, 0, data.length);
+                target.flush();
+            }
+        } catch (EOFException e) {
+            // Closed without a response means the token was rejected, most likely a stale file from an older daemon.
+            if (!started)
+                return -1;
+            System.err.println("Lost connection to the MergeTool daemon");
+            return 1;
+        } catch (ConnectException e) {
+            return -1;
+        } catch (IOException e) {
+            if (!started)
+                return -1;
+            System.err.println("Lost connection to the MergeTool daemon: " + e);
+            return 1;
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static File getInfoFile() {
+        String version = Merger.class.getPackage().getImplementationVersion();
+        return new File(System.getProperty("user.home"), ".mergetool/daemon-" + (version == null ? "dev" : version) + ".properties");
+    }
+
+    private static Properties readInfo(File file) {
+        if (!file.isFile())
+            return null;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Properties props = new Properties();
+            props.load(reader);
+            return props;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeInfo(File file, int port, String token) throws IOException {
+        Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+        // Restrict the file before the token is written to it, anyone who can read it can run tasks as this user.
+        Path tmp = Files.createTempFile(target.getParent(), "daemon", ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(tmp, EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+            } catch (UnsupportedOperationException e) {
+                // Not a posix file system, the user's home directory is the best we can do.
+            }
+            Properties props = new Properties();
+            props.setProperty("port", Integer.toString(port));
+            props.setProperty("token", token);
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                props.store(writer, "MergeTool daemon");
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing useful to do
+        }
+    }
+
+    /*
+     * Sends everything written to it as frames of the given type. Both output streams share one connection, so frames are written atomically.
+     */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int type;
+
+        private FrameStream(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (this.out) {
+                this.out.writeByte(this.type);
+                this.out.writeInt(len);
+                this.out.write(data, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (this.out) {
+                this.out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
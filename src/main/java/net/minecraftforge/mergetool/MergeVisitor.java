@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.minecraftforge.mergetool.ClassShape.Member;
+
+/*
+ * Streams the base class into the output, interleaving the members taken from other classes in their merged positions.
+ * Base members that are not annotated are passed straight to the writer, so their code is copied as is.
+ * Every other class with members in the merged lists must have had readMembers called with those lists first.
+ */
+class MergeVisitor extends ClassAnnotator {
+    private final ClassShape base;
+    private final List<Member> fields;
+    private final List<Member> methods;
+    private final String[] interfaces;
+    private final AnnotationVersion annotation;
+    private final Function<Member, String> sides;
+    private List<InnerClassNode> inners;
+    private int field = 0;
+    private int method = 0;
+
+    /*
+     * The interfaces replace the base class's, and the inners are added after its own. Members are annotated with the side the function returns,
+     * members it returns null for, and everything if there is no annotation, are left as they are.
+     */
+    MergeVisitor(ClassVisitor cv, Consumer<ClassVisitor> annotations, ClassShape base, String[] interfaces, List<InnerClassNode> inners,
+            List<Member> fields, List<Member> methods, AnnotationVersion annotation, Function<Member, String> sides) {
+        super(cv, annotations);
+        this.base = base;
+        this.fields = fields;
+        this.methods = methods;
+        this.interfaces = interfaces;
+        this.inners = inners;
+        this.annotation = annotation;
+        this.sides = sides;
+    }
+
+    private String getSide(Member member) {
+        return this.annotation == null ? null : this.sides.apply(member);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        super.visit(version, access, name, signature, superName, this.interfaces);
+    }
+
+    private void flushInners() {
+        annotate();
+        if (this.inners != null) {
+            for (InnerClassNode node : this.inners)
+                node.accept(this.cv);
+            this.inners = null;
+        }
+    }
+
+    // Writes any members from other classes that come before the next base member, returns the base member or null if there are none left.
+    private Member flushFields() {
+        flushInners();
+        for (; this.field < this.fields.size(); this.field++) {
+            Member member = this.fields.get(this.field);
+            if (member.owner == this.base)
+                return member;
+
+            FieldNode node = member.getField();
+            String side = getSide(member);
+            if (side != null)
+                this.annotation.add(node, side);
+            node.accept(this.cv);
+        }
+        return null;
+    }
+
+    private Member flushMethods() {
+        flushFields();
+        for (; this.method < this.methods.size(); this.method++) {
+            Member member = this.methods.get(this.method);
+            if (member.owner == this.base)
+                return member;
+
+            MethodNode node = member.getMethod();
+            String side = getSide(member);
+            if (side != null)
+                this.annotation.add(node, side);
+            node.accept(this.cv);
+        }
+        return null;
+    }
+
+    @Override
+    public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+        flushInners();
+        return super.visitRecordComponent(name, descriptor, signature);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        Member member = flushFields();
+        this.field++;
+        FieldVisitor fv = super.visitField(access, name, descriptor, signature, value);
+        String side = member == null ? null : getSide(member);
+        if (fv == null || side == null)
+            return fv;
+
+        return new FieldVisitor(Opcodes.ASM9, fv) {
+            @Override
+            public void visitEnd() {
+                MergeVisitor.this.annotation.add(this.fv, side);
+                super.visitEnd();
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        Member member = flushMethods();
+        this.method++;
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        String side = member == null ? null : getSide(member);
+        if (mv == null || side == null)
+            return mv;
+
+        // Wrapping the writer means this method will be rewritten instead of copied, but that only happens to sided methods.
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+            private boolean annotated = false;
+
+            private void annotate() {
+                if (!this.annotated) {
+                    this.annotated = true;
+                    MergeVisitor.this.annotation.add(this.mv, side);
+                }
+            }
+
+            @Override
+            public void visitCode() {
+                annotate();
+                super.visitCode();
+            }
+
+            @Override
+            public void visitEnd() {
+                annotate();
+                super.visitEnd();
+            }
+        };
+    }
+
+    @Override
+    public void visitEnd() {
+        flushMethods();
+        super.visitEnd();
+    }
+}
@@ -5,66 +5,103 @@
 package net.minecraftforge.mergetool;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.InnerClassNode;
-import org.objectweb.asm.tree.LineNumberNode;
-import org.objectweb.asm.tree.MethodNode;
-
-import java.io.BufferedOutputStream;
+
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Set;
-import java.util.function.BiPredicate;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+
+import net.minecraftforge.mergetool.ClassShape.Member;
 
 public class Merger {
     private static final boolean DEBUG = false;
-
-    private final File client;
-    private final File server;
+    // Bump the format whenever the merge output changes, so cached and previously written classes are no longer reused.
+    private static final int FORMAT = 1;
+    static final String OUTPUT_VERSION = FORMAT + ":" + Merger.class.getPackage().getImplementationVersion();
+    // Sides used in the side index, the two way merge labels each input by the jar it came from.
+    private static final String CLIENT = "CLIENT";
+    private static final String SERVER = "SERVER";
+
+    private final JarSource client;
+    private final JarSource server;
+    private final JarSink output;
     private final File merged;
     private AnnotationVersion annotation = null;
     private boolean annotationInject = true;
-    private FieldName FIELD = new FieldName();
-    private MethodDesc METHOD = new MethodDesc();
     private HashSet<String> whitelist = new HashSet<>();
     private Predicate<String> filter = name -> this.whitelist.isEmpty() || this.whitelist.contains(name);
     private boolean copyData = false;
     private boolean keepMeta = false;
     private boolean bundledServerJar = false;
     private boolean sortInterfaces = false;
+    private int threads = 1;
+    private Executor executor = null;
+    private MergeCache cache = null;
+    private boolean incremental = false;
+    private int compression = Deflater.DEFAULT_COMPRESSION;
+    private Stripper stripper = null;
+    private Stripper.Rules stripRules = null;
+    private boolean indexSides = false;
+    private File sideIndexFile = null;
+    private SideIndex.Format sideIndexFormat = SideIndex.Format.TEXT;
+    private SideIndex sideIndex = null;
+    private SpillStore spill = new SpillStore();
+    private Stats stats = new Stats();
 
     public Merger(File client, File server, File merged) {
+        this(JarSource.of(client), JarSource.of(server), JarSink.jar(merged));
+    }
+
+    /*
+     * Merges jars from anywhere into anywhere, such as jars that are already in memory into a callback, without touching the disk.
+     * Incremental merges need the previous output, so they are only supported when writing a jar file.
+     */
+    public Merger(JarSource client, JarSource server, JarSink output) {
         this.client = client;
         this.server = server;
-        this.merged = merged;
+        this.output = output;
+        this.merged = output.getFile();
     }
 
     public Merger annotate(AnnotationVersion ano, boolean inject) {
@@ -80,7 +117,7 @@ public class Merger {
 
     /*
      * The predicate is called with the class name in binary format {essentially the path to the class file, minus the .class suffix)
-     * Anything that does not return true from this predicate will be filtered out.
+     * Anything that does not return true from this predicate will be filtered out. See ClassFilter for a fast rule based implementation.
      */
     public Merger filter(Predicate<String> filter) {
         this.filter = filter;
@@ -117,102 +154,411 @@ public class Merger {
         return this;
     }
 
-    public void process() throws IOException {
-        try (ZipOutputStream outJar = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(this.merged)))) {
-            Set<String> added = new HashSet<>();
-            Map<String, byte[]> cClasses = getClassEntries(this.client, outJar, added);
-            Map<String, byte[]> sClasses;
-            if (this.bundledServerJar)
-                sClasses = getBundledClassEntries(this.server, outJar, null);
-            else
-                sClasses = getClassEntries(this.server, outJar, null); //Skip data from the server, as it contains libraries.
+    /*
+     * Number of threads used to merge and compress classes, values less then 1 will use one thread per available processor.
+     * Output is written in the same sorted order regardless of the thread count, so the resulting jar is identical.
+     */
+    public Merger threads(int threads) {
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        return this;
+    }
 
-            for (Entry<String, byte[]> entry : cClasses.entrySet()) {
-                String name = entry.getKey();
+    /*
+     * Compression used for written entries, 0 stores them without compression, 1-9 is the deflate level, and -1 uses the default level.
+     * Resources copied with keepData are always written the way they were compressed in the input.
+     */
+    public Merger compression(int level) {
+        if (level < -1 || level > 9)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.compression = level;
+        return this;
+    }
 
-                if (!this.filter.test(name))
-                    continue;
+    /*
+     * Use an externally managed executor to merge classes, it will not be shut down when processing finishes.
+     */
+    public Merger executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
 
-                byte[] cData = entry.getValue();
-                byte[] sData = sClasses.get(name);
+    /*
+     * Stores merged classes in the specified directory, so later runs with the same inputs and options can reuse them.
+     * Once the directory grows past maxSize bytes, the least recently used entries are removed at the end of the run.
+     */
+    public Merger cache(File dir, long maxSize) {
+        this.cache = new MergeCache(dir, maxSize);
+        return this;
+    }
 
-                if (sData == null) {
-                    if (DEBUG)
-                        System.out.println("Copy class c->s : " + name);
-                    copyClass(name, cData, outJar, true);
-                } else {
-                    if (DEBUG)
-                        System.out.println("Processing class: " + name);
+    /*
+     * Reuse the previous output where possible. The SHA-256 of every input class is saved next to the output jar, along with the hash of the jar itself,
+     * and the next run only merges the classes whose inputs changed, the rest are copied from the old jar without recompressing them.
+     */
+    public Merger incremental() {
+        this.incremental = true;
+        return this;
+    }
 
-                    sClasses.remove(name);
+    /*
+     * Where inputs that can't be read in place are kept, a compressed bundled server jar without a file to extract it next to, or a stream.
+     * Pass the same store to several mergers to share one memory budget between them.
+     */
+    public Merger spill(SpillStore spill) {
+        this.spill = spill;
+        return this;
+    }
 
-                    byte[] data = processClass(cData, sData);
+    /*
+     * Strips the output with the rules in the data file, the same way Stripper would, while the classes are merged.
+     * This produces the same classes as running Stripper on the merged jar, without writing and reading back a second jar.
+     * Can be called more than once to load several files.
+     */
+    public Merger strip(File data) throws IOException {
+        if (this.stripper == null)
+            this.stripper = new Stripper();
+        this.stripper.loadData(data);
+        return this;
+    }
+
+    /*
+     * Records every class, field, method and interface that is only on one side, and writes them to the file once the merge finishes.
+     * The file can be null to only keep the index in memory, see getSideIndex. Incremental merges can only reuse classes when the file is written.
+     */
+    public Merger sideIndex(File file, SideIndex.Format format) {
+        this.indexSides = true;
+        this.sideIndexFile = file;
+        this.sideIndexFormat = format;
+        return this;
+    }
+
+    /*
+     * The side index from the last run, or null if it wasn't enabled.
+     */
+    public SideIndex getSideIndex() {
+        return this.sideIndex;
+    }
 
-                    outJar.putNextEntry(getNewEntry(name + ".class"));
-                    outJar.write(data);
+    /*
+     * Timings and counters from the last run.
+     */
+    public Stats getStats() {
+        return this.stats;
+    }
+
+    /*
+     * Number of classes in the last run that were byte for byte identical on both sides, and copied as is.
+     */
+    public int getIdenticalClasses() {
+        return (int)this.stats.get(Stats.Counter.CLASSES_IDENTICAL);
+    }
+
+    /*
+     * Number of shared classes in the last run that were loaded from the cache.
+     */
+    public int getCachedClasses() {
+        return (int)this.stats.get(Stats.Counter.CLASSES_CACHED);
+    }
+
+    /*
+     * Number of classes in the last run that differed, but had nothing to merge, and were copied from the client as is.
+     */
+    public int getUnchangedClasses() {
+        return (int)this.stats.get(Stats.Counter.CLASSES_UNCHANGED);
+    }
+
+    /*
+     * Number of classes in the last run that required a full merge.
+     */
+    public int getMergedClasses() {
+        return (int)this.stats.get(Stats.Counter.CLASSES_MERGED);
+    }
+
+    /*
+     * Number of classes in the last incremental run that were copied from the previous output.
+     */
+    public int getReusedClasses() {
+        return (int)this.stats.get(Stats.Counter.CLASSES_REUSED);
+    }
+
+    public void process() throws IOException {
+        long begin = System.nanoTime();
+        Stats stats = this.stats = new Stats();
+        this.stripRules = this.stripper == null ? null : this.stripper.getRules();
+        SideIndex index = this.sideIndex = this.indexSides ? new SideIndex() : null;
+
+        if (this.incremental && this.merged == null)
+            throw new IllegalStateException("Incremental merges require a jar file output");
+
+        // Any run that writes the output makes the inputs from the last incremental run stale, whether or not this one is incremental.
+        File inputsFile = this.merged == null ? null : new File(this.merged.getPath() + ".inputs");
+        Map<String, String> previous = this.incremental ? readInputs(inputsFile) : null;
+        Map<String, String> inputs = this.incremental ? new ConcurrentHashMap<>() : null;
+        // Reused classes take their members from the previous index, so without one everything has to be merged again.
+        SideIndex oldIndex = previous == null || index == null ? null : readSideIndex();
+        if (index != null && oldIndex == null)
+            previous = null;
+        // The old output is still needed while writing, so write to a temp file and swap it in once we're done.
+        File tmp = previous == null ? null : new File(this.merged.getPath() + ".tmp");
+        boolean success = false;
+        if (tmp == null && inputsFile != null)
+            Files.deleteIfExists(inputsFile.toPath());
+
+        ExecutorService owned = this.executor == null && this.threads > 1 ? Executors.newFixedThreadPool(this.threads) : null;
+        Executor exec = owned == null ? this.executor : owned;
+        // Open the server on another thread while the client is indexed, the bundled server may need to be extracted first.
+        FutureTask<ZipReader> sOpen = new FutureTask<>(() -> this.bundledServerJar ? openBundledServerJar(this.server) : this.server.open(this.spill));
+        if (exec == null)
+            sOpen.run();
+        else
+            exec.execute(sOpen);
+
+        try (EntryWriter outJar = (tmp == null ? this.output : JarSink.jar(tmp)).open(stats);
+             ZipReader oldJar = previous == null ? null : new ZipReader(this.merged);
+             ZipReader cJar = this.client.open(this.spill);
+             ZipReader sJar = await(sOpen)) {
+            // Resources go through the same ordered pipeline as classes, so reading them overlaps with merging.
+            List<Callable<ZipWriter.Entry>> tasks = new ArrayList<>();
+            Set<String> added = new HashSet<>();
+            Iterator<Map.Entry<String, ClassData>> cItr = getClassEntries(cJar, outJar, Stats.Phase.READ_CLIENT, tasks, added).entrySet().iterator();
+            Iterator<Map.Entry<String, ClassData>> sItr = getClassEntries(sJar, outJar, Stats.Phase.READ_SERVER, tasks, null).entrySet().iterator(); //Skip data from the server, as it contains libraries.
+
+            // Both sides are sorted by name, so walk them together and pair up classes as we go.
+            Map.Entry<String, ClassData> cNext = cItr.hasNext() ? cItr.next() : null;
+            Map.Entry<String, ClassData> sNext = sItr.hasNext() ? sItr.next() : null;
+            while (cNext != null || sNext != null) {
+                int cmp = cNext == null ? 1 : sNext == null ? -1 : cNext.getKey().compareTo(sNext.getKey());
+                String name = cmp <= 0 ? cNext.getKey() : sNext.getKey();
+                ClassData cData = cmp <= 0 ? cNext.getValue() : null;
+                ClassData sData = cmp >= 0 ? sNext.getValue() : null;
+                if (cmp <= 0)
+                    cNext = cItr.hasNext() ? cItr.next() : null;
+                if (cmp >= 0)
+                    sNext = sItr.hasNext() ? sItr.next() : null;
+
+                String entryName = name + ".class";
+                if (sData == null) {
+                    stats.increment(Stats.Counter.CLASSES_CLIENT_ONLY);
+                    if (index != null)
+                        index.addClass(name, CLIENT);
+                } else if (cData == null) {
+                    stats.increment(Stats.Counter.CLASSES_SERVER_ONLY);
+                    if (index != null)
+                        index.addClass(name, SERVER);
                 }
+
+                ZipReader.Entry old = previous == null ? null : oldJar.getEntry(entryName);
+                String last = previous == null ? null : previous.get(name);
+                tasks.add(() -> {
+                    byte[] cBytes = cData == null ? null : cData.read();
+                    byte[] sBytes = sData == null ? null : sData.read();
+
+                    // Hashing the data itself means the decision is made here, on the worker, rather than while the jars are being paired up.
+                    if (inputs != null) {
+                        String state = signature(cBytes) + '\t' + signature(sBytes);
+                        inputs.put(name, state);
+                        if (old != null && state.equals(last)) {
+                            if (DEBUG)
+                                System.out.println("Reusing class   : " + name);
+                            if (oldIndex != null)
+                                index.copyMembers(oldIndex, name);
+                            stats.increment(Stats.Counter.CLASSES_REUSED);
+                            return copyEntry(outJar, entryName, oldJar, old);
+                        }
+                    }
+
+                    if (sBytes == null) {
+                        if (DEBUG)
+                            System.out.println("Copy class c->s : " + name);
+                        return newEntry(outJar, entryName, copyClass(cBytes, true));
+                    } else if (cBytes == null) {
+                        if (DEBUG)
+                            System.out.println("Copy class s->c : " + name);
+                        return newEntry(outJar, entryName, copyClass(sBytes, false));
+                    } else {
+                        if (DEBUG)
+                            System.out.println("Processing class: " + name);
+                        return newEntry(outJar, entryName, processClass(cBytes, sBytes));
+                    }
+                });
             }
 
-            for (Entry<String, byte[]> entry : sClasses.entrySet()) {
-                String name = entry.getKey();
-                if (!this.filter.test(name))
-                    continue;
+            outJar.writeAll(tasks, this.threads, exec);
 
-                if (DEBUG)
-                    System.out.println("Copy class s->c : " + name);
-                copyClass(name, entry.getValue(), outJar, false);
-            }
+            if (this.cache != null)
+                this.cache.trim();
 
             if (this.annotation != null && this.annotationInject) {
-                for (String cls : this.annotation.getClasses()) {
-                    byte[] data = getResourceBytes(cls);
+                for (String cls : this.annotation.getClasses())
+                    outJar.write(newEntry(outJar, cls + ".class", getResourceBytes(cls)));
+            }
 
-                    outJar.putNextEntry(getNewEntry(cls + ".class"));
-                    outJar.write(data);
-                }
+            success = true;
+        } finally {
+            stats.setWallNanos(System.nanoTime() - begin);
+            if (!success) {
+                closeQuietly(sOpen);
+                if (tmp != null)
+                    Files.deleteIfExists(tmp.toPath());
             }
+            if (owned != null)
+                owned.shutdownNow();
+        }
+
+        // Remove the old inputs first, so they can never describe a different jar than the one on disk.
+        if (inputsFile != null)
+            Files.deleteIfExists(inputsFile.toPath());
+        if (tmp != null)
+            Files.move(tmp.toPath(), this.merged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (index != null && this.sideIndexFile != null)
+            index.write(this.sideIndexFile, this.sideIndexFormat);
+        if (inputs != null)
+            writeInputs(inputsFile, inputs);
+    }
 
+    private SideIndex readSideIndex() {
+        if (this.sideIndexFile == null || !this.sideIndexFile.isFile())
+            return null;
+        try {
+            return SideIndex.read(this.sideIndexFile);
+        } catch (IOException e) {
+            return null;
         }
     }
 
-    private ZipEntry getNewEntry(String name) {
-        ZipEntry ret = new ZipEntry(name);
-        ret.setTime(0x92D6688800L); //Stabilize output as java will use current time if we don't set this, we can't use 0 as older java versions output different jars for values less then 1980
-        return ret;
+    private static ZipReader await(FutureTask<ZipReader> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening " + task, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new IOException(e.getCause());
+        }
     }
 
-    private void copyClass(String name, byte[] entry, ZipOutputStream outJar, boolean isClientOnly) throws IOException {
-        ClassReader reader = new ClassReader(entry);
-        ClassNode classNode = new ClassNode();
+    // If something failed before the server was handed to the try block, it still needs to be closed once it is open.
+    private static void closeQuietly(FutureTask<ZipReader> task) {
+        try {
+            task.get().close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException e) {
+            // Failed to open, or already closed, either way there is nothing left to clean up.
+        }
+    }
 
-        reader.accept(classNode, 0);
+    static final long STABLE_TIME = ZipWriter.toDosTime(0x92D6688800L); //Stabilize output as java will use current time if we don't set this, we can't use 0 as older java versions output different jars for values less then 1980
 
-        if (this.annotation != null)
-            this.annotation.add(classNode, isClientOnly);
+    private ZipWriter.Entry newEntry(EntryWriter out, String name, byte[] data) {
+        long start = System.nanoTime();
+        try {
+            return out.newEntry(name, STABLE_TIME, data, this.compression);
+        } finally {
+            this.stats.time(Stats.Phase.COMPRESS, start);
+        }
+    }
 
-        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-        classNode.accept(writer);
+    // Moves an entry over still compressed when writing a jar, only the timestamp is changed.
+    private ZipWriter.Entry copyEntry(EntryWriter out, String name, ZipReader reader, ZipReader.Entry entry) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return out.copyEntry(name, STABLE_TIME, reader, entry);
+        } finally {
+            this.stats.time(Stats.Phase.COPY, start);
+            this.stats.add(Stats.Counter.BYTES_IN, entry.compressedSize);
+        }
+    }
 
-        byte[] data = writer.toByteArray();
+    // SHA-256 of the class, or - if that side doesn't have it.
+    private static String signature(byte[] data) {
+        return data == null ? "-" : MergeCache.hex(MergeCache.sha256().digest(data));
+    }
 
-        outJar.putNextEntry(getNewEntry(name + ".class"));
-        outJar.write(data);
+    /*
+     * Loads the input signatures recorded by the last incremental run, or null if they can't be used with the current options,
+     * or the output on disk is no longer the jar they were recorded for.
+     */
+    private Map<String, String> readInputs(File file) throws IOException {
+        if (!file.exists() || !this.merged.exists())
+            return null;
+
+        Map<String, String> ret = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!getInputsHeader().equals(reader.readLine()))
+                return null;
+
+            // The size is checked first, so a jar that was obviously replaced isn't hashed for nothing.
+            String output = reader.readLine();
+            String size = "output " + this.merged.length() + ' ';
+            if (output == null || !output.startsWith(size) || !output.substring(size.length()).equals(hash(this.merged.toPath())))
+                return null;
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int idx = line.indexOf('\t');
+                if (idx == -1)
+                    return null;
+                ret.put(line.substring(0, idx), line.substring(idx + 1));
+            }
+        }
+        return ret;
     }
 
-    private Map<String, byte[]> getClassEntries(File inFile, ZipOutputStream output, Set<String> added) throws IOException {
-        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(inFile))) {
-            return getClassEntries(zin, output, added);
+    private void writeInputs(File file, Map<String, String> inputs) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(getInputsHeader());
+            writer.write('\n');
+            writer.write("output " + this.merged.length() + ' ' + hash(this.merged.toPath()));
+            writer.write('\n');
+            for (Map.Entry<String, String> entry : new TreeMap<>(inputs).entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
         }
     }
 
-    private Map<String, byte[]> getClassEntries(ZipInputStream input, ZipOutputStream output, Set<String> added) throws IOException {
-        Map<String, byte[]> ret = new Hashtable<>();
-        for (ZipEntry entry; (entry = input.getNextEntry()) != null; ) {
-            String entryName = entry.getName();
+    // Everything that changes the stored bytes of a merged class, if any of it differs the previous output can't be reused.
+    private String getInputsHeader() {
+        return "MergeTool " + OUTPUT_VERSION + ' ' + (this.annotation == null ? "none" : this.annotation.name()) + ' ' + this.sortInterfaces + ' ' + this.compression +
+            (this.stripRules == null ? "" : " " + this.stripRules.getHash()) + (this.indexSides ? " index" : "");
+    }
+
+    byte[] copyClass(byte[] entry, boolean isClientOnly) {
+        if (this.annotation == null)
+            return strip(entry, null);
+
+        long start = System.nanoTime();
+        Object event = Stats.beginClass();
+        // Stream the class straight through, so only the annotation is added and the rest of the class is copied verbatim.
+        ClassReader reader = new ClassReader(entry);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassAnnotator(stripping(reader.getClassName(), writer), cls -> this.annotation.add(cls, isClientOnly)), 0);
+        byte[] ret = writer.toByteArray();
+        Stats.endClass(event, "annotate", entry);
+        this.stats.time(Stats.Phase.ANNOTATE, start);
+        return ret;
+    }
+
+    /*
+     * Indexes the classes in the jar by name, in sorted order. Resources that should be kept are queued to be copied to the output.
+     */
+    private TreeMap<String, ClassData> getClassEntries(ZipReader input, EntryWriter output, Stats.Phase phase, List<Callable<ZipWriter.Entry>> resources, Set<String> added) throws IOException {
+        TreeMap<String, ClassData> ret = new TreeMap<>();
+        for (ZipReader.Entry entry : input.getEntries()) {
+            String entryName = entry.name;
             if (!entry.isDirectory() && entryName.endsWith(".class") && !entryName.startsWith(".")) {
                 entryName = entryName.substring(0, entryName.length() - 6);
-                byte[] data = readFully(input);
-                ret.put(entryName, data);
+                // Filtered classes are dropped before anything is read, so they cost nothing beyond their directory entry.
+                if (this.filter.test(entryName))
+                    ret.put(entryName, new ZipClassData(input, entry, this.stats, phase));
+                else
+                    this.stats.increment(Stats.Counter.CLASSES_FILTERED);
             } else if (this.copyData && added != null && !added.contains(entryName)) {
                 if (!this.keepMeta && entryName.startsWith("META-INF"))
                     continue;
@@ -222,9 +568,10 @@ public class Merger {
                     //output.putNextEntry(getNewEntry(entryName)); //New entry to reset time
                     added.add(entryName);
                 } else {
-                    output.putNextEntry(getNewEntry(entryName));
-                    copy(input, output);
+                    String name = entryName;
+                    resources.add(() -> copyEntry(output, name, input, entry));
                     added.add(entryName);
+                    this.stats.increment(Stats.Counter.RESOURCES);
                 }
             }
         }
@@ -233,13 +580,19 @@ public class Merger {
 
     private static final Attributes.Name BUNDLER_FORMAT = new Attributes.Name("Bundler-Format");
     private static final String VERSIONS_LIST = "META-INF/versions.list";
-    private Map<String, byte[]> getBundledClassEntries(File inFile, ZipOutputStream output, Set<String> added) throws IOException {
-        try (ZipFile zin = new ZipFile(inFile)) {
-            ZipEntry mfEntry = zin.getEntry(JarFile.MANIFEST_NAME);
+    /*
+     * Opens the server jar nested inside a bundled server jar. When it is stored uncompressed, as the bundler writes it,
+     * it is read directly from its range in the outer jar. Otherwise it is inflated into the spill store, or with a cache directory,
+     * extracted into the cache so later runs can reuse it. Either way it is streamed, never held on the heap as a whole,
+     * and checked against the SHA-256 hash in the versions list, both when it is inflated and before an extracted jar is reused.
+     */
+    private ZipReader openBundledServerJar(JarSource input) throws IOException {
+        try (ZipReader zin = input.open(this.spill)) {
+            ZipReader.Entry mfEntry = zin.getEntry(JarFile.MANIFEST_NAME);
             if (mfEntry == null)
                 throw new IOException("Invalid bundled server jar, Missing " + JarFile.MANIFEST_NAME);
 
-            Manifest mf = new Manifest(zin.getInputStream(mfEntry));
+            Manifest mf = new Manifest(new ByteArrayInputStream(zin.read(mfEntry)));
             String format = mf.getMainAttributes().getValue(BUNDLER_FORMAT);
             if (format == null)
                 throw new IOException("Invalid bundled server jar, Missing " + BUNDLER_FORMAT + " manifest entry");
@@ -247,25 +600,78 @@ public class Merger {
             if (!"1.0".equals(format))
                 throw new IOException("Unsupported Bundler-Format: " + format);
 
-            ZipEntry verEntry = zin.getEntry(VERSIONS_LIST);
+            ZipReader.Entry verEntry = zin.getEntry(VERSIONS_LIST);
             if (verEntry == null)
                 throw new IllegalStateException("Bundled Jar missing " + VERSIONS_LIST);
 
-            List<BundleEntry> verList = readList(zin.getInputStream(verEntry));
+            List<BundleEntry> verList = readList(new ByteArrayInputStream(zin.read(verEntry)));
             if (verList.size() != 1)
                 throw new IllegalStateException("Invalid bundler " + VERSIONS_LIST + " file, " + verList.size() + " entries, expected 1");
 
-            String serverJarName = "META-INF/versions/" + verList.get(0).path;
-            ZipEntry serverJarEntry = zin.getEntry(serverJarName);
+            BundleEntry bundle = verList.get(0);
+            String serverJarName = "META-INF/versions/" + bundle.path;
+            ZipReader.Entry serverJarEntry = zin.getEntry(serverJarName);
             if (serverJarEntry == null)
                 throw new IOException("Invalid bundled server jar, Missing jar entry " + serverJarName);
 
-            try (ZipInputStream server = new ZipInputStream(zin.getInputStream(serverJarEntry))) {
-                return getClassEntries(server, output, added);
+            // Stored uncompressed, as the bundler writes it, so it can be read in place.
+            if (serverJarEntry.method == ZipEntry.STORED)
+                return zin.openNested(serverJarEntry, this.spill);
+
+            String hash = bundle.hash.toLowerCase(Locale.ENGLISH);
+            if (!hash.matches("[0-9a-f]{64}"))
+                throw new IOException("Invalid bundler " + VERSIONS_LIST + " hash, expected SHA-256: " + bundle.hash);
+
+            if (this.cache == null || input.getFile() == null) {
+                MessageDigest digest = MergeCache.sha256();
+                try (InputStream in = new DigestInputStream(zin.openStream(serverJarEntry), digest)) {
+                    ZipReader ret = this.spill.open(in, serverJarEntry.size);
+                    if (!hash.equals(MergeCache.hex(digest.digest()))) {
+                        ret.close();
+                        throw new IOException("Invalid bundled server jar, " + serverJarName + " does not match the hash in " + VERSIONS_LIST);
+                    }
+                    return ret;
+                }
+            }
+
+            // Reuse the jar extracted by a previous run, as long as it is still exactly the jar we want.
+            Path extracted = this.cache.getBundledJar(hash);
+            try {
+                if (Files.size(extracted) == serverJarEntry.size && hash.equals(hash(extracted))) {
+                    Files.setLastModifiedTime(extracted, FileTime.fromMillis(System.currentTimeMillis()));
+                    return new ZipReader(extracted.toFile());
+                }
+            } catch (NoSuchFileException e) {
+                // Not extracted yet, or trimmed from the cache
+            }
+
+            Files.createDirectories(extracted.getParent());
+            // Write to a temp file first, so a concurrent or interrupted run never leaves a partial jar behind.
+            Path tmp = Files.createTempFile(extracted.getParent(), hash, ".tmp");
+            try {
+                MessageDigest digest = MergeCache.sha256();
+                try (InputStream in = new DigestInputStream(zin.openStream(serverJarEntry), digest)) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (!hash.equals(MergeCache.hex(digest.digest())))
+                    throw new IOException("Invalid bundled server jar, " + serverJarName + " does not match the hash in " + VERSIONS_LIST);
+                Files.move(tmp, extracted, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
             }
+            return new ZipReader(extracted.toFile());
         }
     }
 
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = MergeCache.sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buf = new byte[0x10000];
+            while (in.read(buf) != -1);
+        }
+        return MergeCache.hex(digest.digest());
+    }
+
     private static List<BundleEntry> readList(InputStream in) throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
             List<BundleEntry> ret = new ArrayList<>();
@@ -280,7 +686,7 @@ public class Merger {
         }
     }
 
-    private byte[] readFully(InputStream stream) throws IOException {
+    private static byte[] readFully(InputStream stream) throws IOException {
         ByteArrayOutputStream buf = new ByteArrayOutputStream();
         copy(stream, buf);
         return buf.toByteArray();
@@ -296,207 +702,218 @@ public class Merger {
         } while (len != -1);
     }
 
-    private byte[] processClass(byte[] cIn, byte[] sIn) {
-        ClassNode cClassNode = getClassNode(cIn);
-        ClassNode sClassNode = getClassNode(sIn);
-
-        processFields(cClassNode, sClassNode);
-        processMethods(cClassNode, sClassNode);
-        processInners(cClassNode, sClassNode);
-        processInterfaces(cClassNode, sClassNode);
-
-        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-        cClassNode.accept(writer);
-        return writer.toByteArray();
-    }
-
-    private boolean innerMatches(InnerClassNode o, InnerClassNode o2) {
-        return equals(o.innerName, o2.innerName) &&
-               equals(o.name,      o2.name) &&
-               equals(o.outerName, o2.outerName);
-    }
-
-    private boolean equals(Object o1, Object o2) {
-        return o1 == null ? o2 == null : o2 == null ? false : o1.equals(o2);
-    }
-
-    private void processInners(ClassNode cClass, ClassNode sClass) {
-        List<InnerClassNode> cIners = cClass.innerClasses;
-        List<InnerClassNode> sIners = sClass.innerClasses;
-
-        for (InnerClassNode n : cIners) {
-            if (!sIners.stream().anyMatch(e -> innerMatches(e, n)))
-                sIners.add(n);
-        }
-
-        for (InnerClassNode n : sIners) {
-            if (!cIners.stream().anyMatch(e -> innerMatches(e, n)))
-                cIners.add(n);
+    byte[] processClass(byte[] cIn, byte[] sIn) throws IOException {
+        long start = System.nanoTime();
+        Object event = Stats.beginClass();
+        try {
+            return processClassImpl(cIn, sIn);
+        } finally {
+            Stats.endClass(event, "merge", cIn);
+            this.stats.time(Stats.Phase.MERGE, start);
         }
     }
 
-    private void processInterfaces(ClassNode cClass, ClassNode sClass) {
-        List<String> cIntfs = cClass.interfaces;
-        List<String> sIntfs = sClass.interfaces;
-        List<String> cOnly = new ArrayList<>();
-        List<String> sOnly = new ArrayList<>();
+    private byte[] processClassImpl(byte[] cIn, byte[] sIn) throws IOException {
+        // Only look up the name when stripping, so the fast path below stays a plain array compare.
+        String name = this.stripRules == null ? null : new ClassReader(cIn).getClassName();
 
-        for (String n : cIntfs) {
-            if (!sIntfs.contains(n)) {
-                sIntfs.add(n);
-                cOnly.add(n);
+        // Most classes are shared between both sides unchanged, so check if there is anything to merge before doing any real work.
+        if (Arrays.equals(cIn, sIn)) {
+            if (!this.sortInterfaces || isSorted(new ClassReader(cIn).getInterfaces())) {
+                this.stats.increment(Stats.Counter.CLASSES_IDENTICAL);
+                return strip(cIn, name);
             }
         }
 
-        for (String n : sIntfs) {
-            if (!cIntfs.contains(n)) {
-                cIntfs.add(n);
-                sOnly.add(n);
+        String key = null;
+        if (this.cache != null) {
+            key = this.cache.getKey(cIn, sIn, this.annotation, this.sortInterfaces, isStripped(name) ? this.stripRules.getHash() : null);
+            byte[] cached = this.cache.get(key);
+            if (cached != null) {
+                this.stats.increment(Stats.Counter.CLASSES_CACHED);
+                // Empty entries had nothing to merge, so nothing is sided. Anything else needs the shapes to know what is.
+                if (this.sideIndex != null && cached.length != 0)
+                    indexSides(new ClassShape(cIn), new ClassShape(sIn));
+                return cached.length == 0 ? strip(cIn, name) : cached;
             }
         }
 
-        if (sortInterfaces) {
-            Collections.sort(cIntfs); //Sort things, we're in obf territory but should stabilize things.
-            Collections.sort(sIntfs);
-        }
+        // Merged classes are stripped as they are written, only the client's bytes still need it when nothing was merged.
+        byte[] ret = mergeClass(cIn, sIn);
 
-        if (this.annotation != null && !cOnly.isEmpty() || !sOnly.isEmpty()) {
-            this.annotation.add(cClass, cOnly, sOnly);
-            this.annotation.add(sClass, cOnly, sOnly);
-        }
-    }
+        // Classes that don't need merging are stored as empty entries, which means use the client's bytes as is.
+        if (key != null)
+            this.cache.put(key, ret == cIn ? new byte[0] : ret);
 
-    private ClassNode getClassNode(byte[] data) {
-        ClassReader reader = new ClassReader(data);
-        ClassNode classNode = new ClassNode();
-        reader.accept(classNode, 0);
-        return classNode;
+        return ret == cIn ? strip(cIn, name) : ret;
     }
 
-    private static <T, U> BiPredicate<? super U, ? super U> curry(Function<? super U, ? extends T> function, BiPredicate<? super T, ? super T> primary) {
-        return (a,b) -> primary.test(function.apply(a), function.apply(b));
+    private boolean isStripped(String name) {
+        return this.stripRules != null && name != null && this.stripRules.contains(name);
     }
 
-    private void processFields(ClassNode cClass, ClassNode sClass) {
-        merge(cClass.name, sClass.name, cClass.fields, sClass.fields, curry(FIELD, Objects::equals), FIELD, FIELD, FIELD);
-    }
+    /*
+     * Strips a class that is being written as is. The name is looked up if it isn't known yet.
+     */
+    private byte[] strip(byte[] data, String name) {
+        if (this.stripRules == null)
+            return data;
+        if (name == null)
+            name = new ClassReader(data).getClassName();
+        if (!this.stripRules.contains(name))
+            return data;
+        this.stats.increment(Stats.Counter.CLASSES_STRIPPED);
+        return Stripper.strip(this.stripRules, data, this.stats);
+    }
+
+    // Inserts the strip rules in front of the writer, so a class that is rewritten anyway is stripped in the same pass.
+    private ClassVisitor stripping(String name, ClassVisitor cv) {
+        if (!isStripped(name))
+            return cv;
+        this.stats.increment(Stats.Counter.CLASSES_STRIPPED);
+        return this.stripRules.wrap(cv);
+    }
+
+    byte[] mergeClass(byte[] cIn, byte[] sIn) {
+        ClassShape cShape = new ClassShape(cIn);
+        ClassShape sShape = new ClassShape(sIn);
+        if (!needsMerge(cShape, sShape, this.sortInterfaces)) {
+            this.stats.increment(Stats.Counter.CLASSES_UNCHANGED);
+            return cIn;
+        }
 
-    private void processMethods(ClassNode cClass, ClassNode sClass) {
-        merge(cClass.name, sClass.name, cClass.methods, sClass.methods, curry(METHOD, Objects::equals), METHOD, METHOD, METHOD);
-    }
+        this.stats.increment(Stats.Counter.CLASSES_MERGED);
+        if (this.sideIndex != null)
+            indexSides(cShape, sShape);
+
+        MemberAligner.OneSided<Member> sided = (member, isClient) -> member.isSided = true;
+        List<Member> fields = MemberAligner.align(cShape.fields, sShape.fields, Member::key, Member::compareNames, sided);
+        List<Member> methods = MemberAligner.align(cShape.methods, sShape.methods, Member::key, Member::compareLines, sided);
+        countSided(fields, sShape, Stats.Counter.FIELDS_CLIENT_ONLY, Stats.Counter.FIELDS_SERVER_ONLY);
+        countSided(methods, sShape, Stats.Counter.METHODS_CLIENT_ONLY, Stats.Counter.METHODS_SERVER_ONLY);
 
-    private interface MemberAnnotator<T> {
-        T process(T member, boolean isClient);
+        // Only the members that the server adds need to be read in full, everything from the client is streamed through.
+        sShape.readMembers(fields, methods);
+
+        List<String> cOnly = new ArrayList<>();
+        List<String> sOnly = new ArrayList<>();
+        String[] interfaces = mergeInterfaces(cShape, sShape, cOnly, sOnly);
+        Consumer<ClassVisitor> annotations = cls -> {
+            if (this.annotation != null && (!cOnly.isEmpty() || !sOnly.isEmpty()))
+                this.annotation.add(cls, cOnly, sOnly);
+        };
+        Function<Member, String> sides = member -> member.isSided ? this.annotation.getSide(member.owner == cShape) : null;
+
+        ClassWriter writer = new ClassWriter(cShape.reader, 0);
+        cShape.reader.accept(new MergeVisitor(stripping(cShape.name, writer), annotations, cShape, interfaces, cShape.missingInners(Collections.singletonList(sShape)),
+            fields, methods, this.annotation, sides), 0);
+        return writer.toByteArray();
     }
 
-    private class FieldName implements Function<FieldNode, String>, MemberAnnotator<FieldNode>, Comparator<FieldNode> {
-        public String apply(FieldNode in) {
-            return in == null ? "null" : in.name;
+    /*
+     * Records everything that only one of the classes has, which is exactly what merging annotates.
+     */
+    private void indexSides(ClassShape cShape, ClassShape sShape) {
+        indexMembers(cShape.name, cShape.fields, sShape.fields, false, CLIENT);
+        indexMembers(cShape.name, sShape.fields, cShape.fields, false, SERVER);
+        indexMembers(cShape.name, cShape.methods, sShape.methods, true, CLIENT);
+        indexMembers(cShape.name, sShape.methods, cShape.methods, true, SERVER);
+
+        List<String> cIntfs = Arrays.asList(cShape.interfaces);
+        List<String> sIntfs = Arrays.asList(sShape.interfaces);
+        for (String intf : cShape.interfaces) {
+            if (!sIntfs.contains(intf))
+                this.sideIndex.addInterface(cShape.name, intf, CLIENT);
         }
-
-        public FieldNode process(FieldNode field, boolean isClient) {
-            if (Merger.this.annotation != null)
-                Merger.this.annotation.add(field, isClient);
-            return field;
+        for (String intf : sShape.interfaces) {
+            if (!cIntfs.contains(intf))
+                this.sideIndex.addInterface(cShape.name, intf, SERVER);
         }
+    }
 
-        @Override
-        public int compare(FieldNode a, FieldNode b) {
-            if (a == b) return 0;
-            if (a == null) return 1;
-            if (b == null) return -1;
-            return a.name.compareTo(b.name);
+    private void indexMembers(String cls, List<Member> members, List<Member> other, boolean methods, String side) {
+        Set<String> keys = new HashSet<>(keys(other));
+        for (Member member : members) {
+            if (keys.contains(member.key))
+                continue;
+            if (methods)
+                this.sideIndex.addMethod(cls, member.key, side);
+            else
+                this.sideIndex.addField(cls, member.key, side);
         }
     }
 
-    private class MethodDesc implements Function<MethodNode, String>, MemberAnnotator<MethodNode>, Comparator<MethodNode> {
-        public String apply(MethodNode node) {
-            return node == null ? "null" : node.name + node.desc;
+    // After merging, the client's list holds its own members, with the sided ones flagged, and the members added from the server.
+    private void countSided(List<Member> members, ClassShape server, Stats.Counter clientOnly, Stats.Counter serverOnly) {
+        for (Member member : members) {
+            if (member.owner == server)
+                this.stats.increment(serverOnly);
+            else if (member.isSided)
+                this.stats.increment(clientOnly);
         }
+    }
 
-        public MethodNode process(MethodNode node, boolean isClient) {
-            if (Merger.this.annotation != null)
-                Merger.this.annotation.add(node, isClient);
-            return node;
-        }
+    /*
+     * Returns true if merging the two classes would change anything in the client class.
+     * This mirrors the rules used by MemberAligner, ClassShape.missingInners and mergeInterfaces.
+     */
+    static boolean needsMerge(ClassShape cShape, ClassShape sShape, boolean sortInterfaces) {
+        if (!keys(cShape.fields).equals(keys(sShape.fields)) || !keys(cShape.methods).equals(keys(sShape.methods)))
+            return true;
 
-        private int findLine(MethodNode member) {
-            for (int x = 0; x < member.instructions.size(); x++) {
-                AbstractInsnNode insn = member.instructions.get(x);
-                if (insn instanceof LineNumberNode)
-                    return ((LineNumberNode)insn).line;
-            }
-            return Integer.MAX_VALUE;
-        }
+        if (!cShape.innerKeys.containsAll(sShape.innerKeys))
+            return true;
 
-        @Override
-        public int compare(MethodNode a, MethodNode b) {
-            if (a == b) return 0;
-            if (a == null) return 1;
-            if (b == null) return -1;
-            return findLine(a) - findLine(b);
+        List<String> cIntfs = Arrays.asList(cShape.interfaces);
+        List<String> sIntfs = Arrays.asList(sShape.interfaces);
+        if (!cIntfs.containsAll(sIntfs) || !sIntfs.containsAll(cIntfs))
+            return true;
+
+        return sortInterfaces && !isSorted(cShape.interfaces);
+    }
+
+    private static List<String> keys(List<Member> members) {
+        List<String> ret = new ArrayList<>(members.size());
+        for (Member member : members)
+            ret.add(member.key);
+        return ret;
+    }
+
+    static boolean isSorted(String[] values) {
+        for (int x = 1; x < values.length; x++) {
+            if (values[x - 1].compareTo(values[x]) > 0)
+                return false;
         }
+        return true;
     }
 
-    private <T> void merge(String cName, String sName, List<T> client, List<T> server, BiPredicate<? super T, ? super T> eq,
-            MemberAnnotator<T> annotator, Function<T, String> toString, Comparator<T> compare) {
-        // adding null to the end to not handle the index overflow in a special way
-        client.add(null);
-        server.add(null);
-        List<T> common = new ArrayList<>();
-        for(T ct : client) {
-            for (T st : server) {
-                if (eq.test(ct, st)) {
-                    common.add(ct);
-                    break;
-                }
-            }
+    /*
+     * Builds the merged interface list, and records which interfaces are only on one side.
+     */
+    private String[] mergeInterfaces(ClassShape cShape, ClassShape sShape, List<String> cOnly, List<String> sOnly) {
+        List<String> cIntfs = new ArrayList<>(Arrays.asList(cShape.interfaces));
+        Set<String> cKeys = new HashSet<>(cIntfs);
+        Set<String> sKeys = new HashSet<>(Arrays.asList(sShape.interfaces));
+
+        for (String n : cShape.interfaces) {
+            if (!sKeys.contains(n))
+                cOnly.add(n);
         }
 
-        int i = 0, mi = 0;
-        for(; i < client.size(); i++) {
-            T ct = client.get(i);
-            T st = server.get(i);
-            T mt = common.get(mi);
-
-            if (eq.test(ct, st)) {
-                mi++;
-                if (!eq.test(ct, mt))
-                    throw new IllegalStateException("merged list is in bad state: " + toString.apply(ct) + " " + toString.apply(st) + " " + toString.apply(mt));
-                if (DEBUG)
-                    System.out.printf("%d/%d %d/%d Both Shared  : %s %s\n", i, client.size(), mi, common.size(), sName, toString.apply(st));
-
-            } else if(eq.test(st, mt)) {
-                server.add(i, annotator.process(ct, true));
-                if (DEBUG)
-                    System.out.printf("%d/%d %d/%d Server *add* : %s %s\n", i, client.size(), mi, common.size(), sName, toString.apply(ct));
-            } else if (eq.test(ct, mt)) {
-                client.add(i, annotator.process(st, false));
-                if (DEBUG)
-                    System.out.printf("%d/%d %d/%d Client *add* : %s %s\n", i, client.size(), mi, common.size(), cName, toString.apply(st));
-            } else { // Both server and client add a new method before we get to the next common method... Lets try and prioritize one.
-                int diff = compare.compare(ct,  st);
-                if  (diff > 0) {
-                    client.add(i, annotator.process(st, false));
-                    if (DEBUG)
-                        System.out.printf("%d/%d %d/%d Client *add* : %s %s\n", i, client.size(), mi, common.size(), cName, toString.apply(st));
-                } else { /* if (diff < 0) */ //Technically this should be <0 and we special case when they can't agree who goes first.. but for now just push the client's first.
-                    server.add(i, annotator.process(ct, true));
-                    if (DEBUG)
-                        System.out.printf("%d/%d %d/%d Server *add* : %s %s\n", i, client.size(), mi, common.size(), sName, toString.apply(ct));
-                }
+        for (String n : sShape.interfaces) {
+            if (cKeys.add(n)) {
+                cIntfs.add(n);
+                sOnly.add(n);
             }
         }
 
-        if (i < server.size() || mi < common.size() || (client.size() != server.size()))
-            throw new IllegalStateException("merged list is in bad state: " + i + " " + mi);
+        if (this.sortInterfaces)
+            Collections.sort(cIntfs); //Sort things, we're in obf territory but should stabilize things.
 
-        // removing the null
-        client.remove(client.size() - 1);
-        server.remove(server.size() - 1);
+        return cIntfs.toArray(new String[cIntfs.size()]);
     }
 
-    private byte[] getResourceBytes(String path) throws IOException {
+    static byte[] getResourceBytes(String path) throws IOException {
         // If we're in the built jar, use the relocated classes {prevents them being
         InputStream stream = Merger.class.getResourceAsStream("/markers/" + path + ".marker");
         // If not, then try and get them from the classpath
@@ -513,9 +930,38 @@ public class Merger {
     }
 
 
-    @SuppressWarnings("unused")
+    private interface ClassData {
+        byte[] read() throws IOException;
+    }
+
+    private static class ZipClassData implements ClassData {
+        private final ZipReader reader;
+        private final ZipReader.Entry entry;
+        private final Stats stats;
+        private final Stats.Phase phase;
+
+        private ZipClassData(ZipReader reader, ZipReader.Entry entry, Stats stats, Stats.Phase phase) {
+            this.reader = reader;
+            this.entry = entry;
+            this.stats = stats;
+            this.phase = phase;
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return this.reader.read(this.entry);
+            } finally {
+                this.stats.time(this.phase, start);
+                this.stats.add(Stats.Counter.BYTES_IN, this.entry.compressedSize);
+            }
+        }
+    }
+
     private static class BundleEntry {
         public final String hash;
+        @SuppressWarnings("unused")
         public final String artifact;
         public final String path;
 
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import net.minecraftforge.mergetool.ClassShape.Member;
+
+/*
+ * Merges any number of jars in one pass, instead of chaining two way merges through intermediate jars.
+ *
+ * Every input has a side, the name of the side enum value used when annotating anything that only exists on that side, such as CLIENT or DEDICATED_SERVER.
+ * Several inputs can share a side, for example a dedicated server and a data generator jar. A class, member or interface is annotated
+ * when everything that has it is on a single side, and some other side that has the surrounding class does not.
+ * Anything found on more than one side, but not all of them, can't be expressed by the annotation and is left as is.
+ *
+ * Members are aligned by folding the inputs in the order they were added, using the same rules as the two way merge,
+ * so the member order matches what chaining two way merges in that order would produce. The first input with a class is used as its base,
+ * and is streamed into the output the same way Merger streams the client class, so two inputs give exactly the same classes as Merger.
+ * Resources are only copied from the first input.
+ */
+public class MultiMerger {
+    private final JarSink output;
+    private final List<JarSource> inputs = new ArrayList<>();
+    private final List<String> sides = new ArrayList<>();
+    private AnnotationVersion annotation = null;
+    private boolean annotationInject = true;
+    private Predicate<String> filter = name -> true;
+    private boolean copyData = false;
+    private boolean keepMeta = false;
+    private boolean sortInterfaces = false;
+    private int threads = 1;
+    private Executor executor = null;
+    private int compression = Deflater.DEFAULT_COMPRESSION;
+    private boolean indexSides = false;
+    private File sideIndexFile = null;
+    private SideIndex.Format sideIndexFormat = SideIndex.Format.TEXT;
+    private SideIndex sideIndex = null;
+    private SpillStore spill = new SpillStore();
+    private Stats stats = new Stats();
+
+    public MultiMerger(File merged) {
+        this(JarSink.jar(merged));
+    }
+
+    public MultiMerger(JarSink output) {
+        this.output = output;
+    }
+
+    public MultiMerger input(File jar, String side) {
+        return input(JarSource.of(jar), side);
+    }
+
+    public MultiMerger input(JarSource jar, String side) {
+        this.inputs.add(jar);
+        this.sides.add(side);
+        return this;
+    }
+
+    public MultiMerger annotate(AnnotationVersion ano, boolean inject) {
+        this.annotation = ano;
+        this.annotationInject = inject;
+        return this;
+    }
+
+    /*
+     * The predicate is called with the class name in binary format, anything that does not return true is filtered out.
+     */
+    public MultiMerger filter(Predicate<String> filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public MultiMerger keepData() {
+        this.copyData = true;
+        return this;
+    }
+
+    public MultiMerger keepMeta() {
+        this.keepMeta = true;
+        return this;
+    }
+
+    public MultiMerger sortInterfaces() {
+        this.sortInterfaces = true;
+        return this;
+    }
+
+    /*
+     * Number of threads used to merge and compress classes, values less then 1 will use one thread per available processor.
+     */
+    public MultiMerger threads(int threads) {
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        return this;
+    }
+
+    /*
+     * Use an externally managed executor to merge classes, it will not be shut down when processing finishes.
+     */
+    public MultiMerger executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public MultiMerger compression(int level) {
+        if (level < -1 || level > 9)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.compression = level;
+        return this;
+    }
+
+    /*
+     * Where inputs that can't be read in place, such as streams, are kept while merging. See SpillStore.
+     */
+    public MultiMerger spill(SpillStore spill) {
+        this.spill = spill;
+        return this;
+    }
+
+    /*
+     * Records everything that is only on one side, using the input labels, and writes it to the file once the merge finishes.
+     * The file can be null to only keep the index in memory, see getSideIndex.
+     */
+    public MultiMerger sideIndex(File file, SideIndex.Format format) {
+        this.indexSides = true;
+        this.sideIndexFile = file;
+        this.sideIndexFormat = format;
+        return this;
+    }
+
+    /*
+     * The side index from the last run, or null if it wasn't enabled.
+     */
+    public SideIndex getSideIndex() {
+        return this.sideIndex;
+    }
+
+    /*
+     * Timings and counters from the last run.
+     */
+    public Stats getStats() {
+        return this.stats;
+    }
+
+    public void process() throws IOException {
+        if (this.inputs.size() < 2)
+            throw new IllegalStateException("At least two inputs are required, found " + this.inputs.size());
+
+        long begin = System.nanoTime();
+        Stats stats = this.stats = new Stats();
+        SideIndex index = this.sideIndex = this.indexSides ? new SideIndex() : null;
+        int count = this.inputs.size();
+        ZipReader[] readers = new ZipReader[count];
+
+        ExecutorService owned = this.executor == null && this.threads > 1 ? Executors.newFixedThreadPool(this.threads) : null;
+        Executor exec = owned == null ? this.executor : owned;
+        try (EntryWriter outJar = this.output.open(stats)) {
+            List<Callable<ZipWriter.Entry>> tasks = new ArrayList<>();
+            Set<String> added = new HashSet<>();
+            TreeMap<String, ZipReader.Entry[]> classes = new TreeMap<>();
+
+            for (int x = 0; x < count; x++) {
+                ZipReader reader = readers[x] = this.inputs.get(x).open(this.spill);
+                for (ZipReader.Entry entry : reader.getEntries()) {
+                    String name = entry.name;
+                    if (!entry.isDirectory() && name.endsWith(".class") && !name.startsWith(".")) {
+                        name = name.substring(0, name.length() - 6);
+                        if (this.filter.test(name))
+                            classes.computeIfAbsent(name, k -> new ZipReader.Entry[count])[x] = entry;
+                        else
+                            stats.increment(Stats.Counter.CLASSES_FILTERED);
+                    } else if (x == 0 && this.copyData && !entry.isDirectory() && (this.keepMeta || !name.startsWith("META-INF")) && added.add(name)) {
+                        stats.increment(Stats.Counter.RESOURCES);
+                        tasks.add(() -> {
+                            long start = System.nanoTime();
+                            try {
+                                return outJar.copyEntry(entry.name, Merger.STABLE_TIME, reader, entry);
+                            } finally {
+                                stats.time(Stats.Phase.COPY, start);
+                                stats.add(Stats.Counter.BYTES_IN, entry.compressedSize);
+                            }
+                        });
+                    }
+                }
+            }
+
+            for (Map.Entry<String, ZipReader.Entry[]> cls : classes.entrySet()) {
+                String entryName = cls.getKey() + ".class";
+                ZipReader.Entry[] entries = cls.getValue();
+                tasks.add(() -> {
+                    byte[][] data = new byte[count][];
+                    long start = System.nanoTime();
+                    for (int x = 0; x < count; x++) {
+                        if (entries[x] != null) {
+                            data[x] = readers[x].read(entries[x]);
+                            stats.add(Stats.Counter.BYTES_IN, entries[x].compressedSize);
+                        }
+                    }
+                    stats.time(Stats.Phase.READ, start);
+                    return newEntry(outJar, entryName, processClass(data));
+                });
+            }
+
+            outJar.writeAll(tasks, this.threads, exec);
+
+            if (this.annotation != null && this.annotationInject) {
+                for (String cls : this.annotation.getClasses())
+                    outJar.write(newEntry(outJar, cls + ".class", Merger.getResourceBytes(cls)));
+            }
+        } finally {
+            for (ZipReader reader : readers) {
+                if (reader != null)
+                    reader.close();
+            }
+            if (owned != null)
+                owned.shutdownNow();
+            stats.setWallNanos(System.nanoTime() - begin);
+        }
+
+        if (index != null && this.sideIndexFile != null)
+            index.write(this.sideIndexFile, this.sideIndexFormat);
+    }
+
+    private ZipWriter.Entry newEntry(EntryWriter out, String name, byte[] data) {
+        long start = System.nanoTime();
+        try {
+            return out.newEntry(name, Merger.STABLE_TIME, data, this.compression);
+        } finally {
+            this.stats.time(Stats.Phase.COMPRESS, start);
+        }
+    }
+
+    /*
+     * Merges one class from every input, entries are null for inputs that don't have it.
+     */
+    byte[] processClass(byte[][] data) {
+        long start = System.nanoTime();
+        int first = -1;
+        int present = 0;
+        boolean identical = true;
+        Set<String> sides = new LinkedHashSet<>();
+        for (int x = 0; x < data.length; x++) {
+            if (data[x] == null)
+                continue;
+            present++;
+            if (first == -1)
+                first = x;
+            else if (identical && !Arrays.equals(data[first], data[x]))
+                identical = false;
+            sides.add(this.sides.get(x));
+        }
+
+        Object event = Stats.beginClass();
+        try {
+            String side = getSided(sides, new HashSet<>(this.sides));
+            if (side != null) {
+                this.stats.increment(Stats.Counter.CLASSES_SIDED);
+                if (this.sideIndex != null)
+                    this.sideIndex.addClass(new ClassReader(data[first]).getClassName(), side);
+            }
+
+            // Like the two way merge, classes from a single input are only annotated, interfaces are only sorted when merging.
+            if (identical && (present == 1 || !this.sortInterfaces || Merger.isSorted(new ClassReader(data[first]).getInterfaces()))) {
+                if (present == data.length)
+                    this.stats.increment(Stats.Counter.CLASSES_IDENTICAL);
+                return annotate(data[first], side);
+            }
+
+            List<ClassShape> shapes = new ArrayList<>();
+            List<String> shapeSides = new ArrayList<>();
+            boolean needsMerge = false;
+            for (int x = first; x < data.length; x++) {
+                if (data[x] == null)
+                    continue;
+                ClassShape shape = new ClassShape(data[x]);
+                if (!shapes.isEmpty())
+                    needsMerge |= Merger.needsMerge(shapes.get(0), shape, this.sortInterfaces);
+                shapes.add(shape);
+                shapeSides.add(this.sides.get(x));
+            }
+
+            if (!needsMerge) {
+                this.stats.increment(Stats.Counter.CLASSES_UNCHANGED);
+                return annotate(data[first], side);
+            }
+
+            this.stats.increment(Stats.Counter.CLASSES_MERGED);
+            return mergeClass(shapes, shapeSides, side);
+        } finally {
+            Stats.endClass(event, "merge", data[first]);
+            this.stats.time(Stats.Phase.MERGE, start);
+        }
+    }
+
+    // Classes that don't need merging are written as is, only adding the class annotation if the class is sided.
+    private byte[] annotate(byte[] data, String side) {
+        if (side == null || this.annotation == null)
+            return data;
+
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassAnnotator(writer, cls -> this.annotation.add(cls, side)), 0);
+        return writer.toByteArray();
+    }
+
+    /*
+     * Folds the classes into the first one in input order, the same way Merger merges a client and server class.
+     * The first class is streamed into the output, only the members the others add are read in full.
+     */
+    private byte[] mergeClass(List<ClassShape> shapes, List<String> shapeSides, String side) {
+        ClassShape base = shapes.get(0);
+        Set<String> classSides = new HashSet<>(shapeSides);
+        Map<String, Set<String>> fieldSides = new HashMap<>();
+        Map<String, Set<String>> methodSides = new HashMap<>();
+        Map<String, Set<String>> interfaceSides = new LinkedHashMap<>();
+
+        List<Member> fields = base.fields;
+        List<Member> methods = base.methods;
+        for (int x = 0; x < shapes.size(); x++) {
+            ClassShape shape = shapes.get(x);
+            String shapeSide = shapeSides.get(x);
+            if (x > 0) {
+                fields = MemberAligner.align(fields, shape.fields, Member::key, Member::compareNames, null);
+                methods = MemberAligner.align(methods, shape.methods, Member::key, Member::compareLines, null);
+            }
+            for (Member fld : shape.fields)
+                fieldSides.computeIfAbsent(fld.key, k -> new HashSet<>()).add(shapeSide);
+            for (Member mtd : shape.methods)
+                methodSides.computeIfAbsent(mtd.key, k -> new HashSet<>()).add(shapeSide);
+            for (String intf : shape.interfaces)
+                interfaceSides.computeIfAbsent(intf, k -> new HashSet<>()).add(shapeSide);
+        }
+
+        List<ClassShape> others = shapes.subList(1, shapes.size());
+        for (ClassShape shape : others)
+            shape.readMembers(fields, methods);
+
+        List<String> sidedInterfaces = new ArrayList<>();
+        List<String> sidedInterfaceSides = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> intf : interfaceSides.entrySet()) {
+            String intfSide = getSided(intf.getValue(), classSides);
+            if (intfSide != null) {
+                sidedInterfaces.add(intf.getKey());
+                sidedInterfaceSides.add(intfSide);
+                if (this.sideIndex != null)
+                    this.sideIndex.addInterface(base.name, intf.getKey(), intfSide);
+            }
+        }
+
+        List<String> interfaces = new ArrayList<>(interfaceSides.keySet());
+        if (this.sortInterfaces)
+            Collections.sort(interfaces); //Sort things, we're in obf territory but should stabilize things.
+
+        Map<Member, String> memberSides = new IdentityHashMap<>();
+        for (Member fld : fields) {
+            String fldSide = getSided(fieldSides.get(fld.key), classSides);
+            if (fldSide != null) {
+                memberSides.put(fld, fldSide);
+                this.stats.increment(Stats.Counter.FIELDS_SIDED);
+                if (this.sideIndex != null)
+                    this.sideIndex.addField(base.name, fld.key, fldSide);
+            }
+        }
+
+        for (Member mtd : methods) {
+            String mtdSide = getSided(methodSides.get(mtd.key), classSides);
+            if (mtdSide != null) {
+                memberSides.put(mtd, mtdSide);
+                this.stats.increment(Stats.Counter.METHODS_SIDED);
+                if (this.sideIndex != null)
+                    this.sideIndex.addMethod(base.name, mtd.key, mtdSide);
+            }
+        }
+
+        Consumer<ClassVisitor> annotations = cls -> {
+            if (this.annotation == null)
+                return;
+            if (side != null)
+                this.annotation.add(cls, side);
+            if (!sidedInterfaces.isEmpty())
+                this.annotation.addInterfaces(cls, sidedInterfaces, sidedInterfaceSides);
+        };
+
+        ClassWriter writer = new ClassWriter(base.reader, 0);
+        base.reader.accept(new MergeVisitor(writer, annotations, base, interfaces.toArray(new String[interfaces.size()]), base.missingInners(others),
+            fields, methods, this.annotation, memberSides::get), 0);
+        return writer.toByteArray();
+    }
+
+    // The single side that has something, as long as there is another side that could have had it, otherwise null.
+    private static String getSided(Set<String> found, Set<String> possible) {
+        return found.size() == 1 && possible.size() > 1 ? found.iterator().next() : null;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Everything a merge found on only one side: whole classes, and the fields, methods and interfaces of shared classes.
+ * The same information the side annotations carry, written next to the merged jar so tools can look it up without reading any classes.
+ * Sides are the labels of the inputs, CLIENT and SERVER for a two way merge, or the labels given to a MultiMerger.
+ *
+ * The text format is one line per entry, sorted, with tab separated values:
+ *   <Class> <Side>
+ *   <Class> F <Field> <Side>
+ *   <Class> M <Method><Descriptor> <Side>
+ *   <Class> I <Interface> <Side>
+ * After a header line of "MergeTool-SideIndex 1". The binary format holds the same entries, with every string stored once.
+ */
+public class SideIndex {
+    public enum Format { TEXT, BINARY }
+
+    private static final String TEXT_HEADER = "MergeTool-SideIndex 1";
+    private static final int MAGIC = 0x4D545349; // MTSI
+    private static final int VERSION = 1;
+    private static final char FIELD = 'F';
+    private static final char METHOD = 'M';
+    private static final char INTERFACE = 'I';
+
+    private final Map<String, Entry> classes = new ConcurrentHashMap<>();
+
+    /*
+     * Reads an index in either format.
+     */
+    public static SideIndex read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            in.mark(4);
+            DataInputStream data = new DataInputStream(in);
+            int magic = data.readInt();
+            in.reset();
+            return magic == MAGIC ? readBinary(data) : readText(in);
+        }
+    }
+
+    // The side the whole class is only on, or null if it is on more than one side.
+    public String getClassSide(String cls) {
+        Entry entry = this.classes.get(cls);
+        return entry == null ? null : entry.side;
+    }
+
+    public String getFieldSide(String cls, String name) {
+        return getMemberSide(cls, FIELD, name);
+    }
+
+    public String getMethodSide(String cls, String name, String descriptor) {
+        return getMemberSide(cls, METHOD, name + descriptor);
+    }
+
+    // The side the class only implements the interface on.
+    public String getInterfaceSide(String cls, String intf) {
+        return getMemberSide(cls, INTERFACE, intf);
+    }
+
+    // Every class that is on one side, or has anything that is.
+    public Set<String> getClasses() {
+        return Collections.unmodifiableSet(new TreeSet<>(this.classes.keySet()));
+    }
+
+    private String getMemberSide(String cls, char kind, String name) {
+        Entry entry = this.classes.get(cls);
+        return entry == null ? null : entry.get(kind, name);
+    }
+
+    /*
+     * The methods used while merging are safe to call from any thread, each class is only ever added to by one task.
+     */
+    void addClass(String cls, String side) {
+        entry(cls).side = side;
+    }
+
+    void addField(String cls, String name, String side) {
+        entry(cls).add(FIELD, name, side);
+    }
+
+    void addMethod(String cls, String key, String side) {
+        entry(cls).add(METHOD, key, side);
+    }
+
+    void addInterface(String cls, String intf, String side) {
+        entry(cls).add(INTERFACE, intf, side);
+    }
+
+    // Copies the members of a class from another index, for classes that are reused from a previous run instead of merged again.
+    void copyMembers(SideIndex from, String cls) {
+        Entry old = from.classes.get(cls);
+        if (old == null)
+            return;
+        synchronized (old) {
+            for (Map.Entry<String, String> member : old.members.entrySet())
+                entry(cls).add(member.getKey().charAt(0), member.getKey().substring(1), member.getValue());
+        }
+    }
+
+    private Entry entry(String cls) {
+        return this.classes.computeIfAbsent(cls, k -> new Entry());
+    }
+
+    public void write(File file, Format format) throws IOException {
+        if (file.getAbsoluteFile().getParentFile() != null)
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            write(out, format);
+        }
+    }
+
+    public void write(OutputStream out, Format format) throws IOException {
+        if (format == Format.BINARY)
+            writeBinary(new DataOutputStream(out));
+        else
+            writeText(out);
+    }
+
+    private void writeText(OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(TEXT_HEADER);
+        writer.write('\n');
+        for (Map.Entry<String, Entry> cls : sorted().entrySet()) {
+            Entry entry = cls.getValue();
+            if (entry.side != null) {
+                writer.write(cls.getKey());
+                writer.write('\t');
+                writer.write(entry.side);
+                writer.write('\n');
+            }
+            for (Map.Entry<String, String> member : entry.sorted().entrySet()) {
+                writer.write(cls.getKey());
+                writer.write('\t');
+                writer.write(member.getKey().charAt(0));
+                writer.write('\t');
+                writer.write(member.getKey(), 1, member.getKey().length() - 1);
+                writer.write('\t');
+                writer.write(member.getValue());
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    private static SideIndex readText(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (!TEXT_HEADER.equals(header))
+            throw new IOException("Invalid side index header: " + header);
+
+        SideIndex ret = new SideIndex();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.isEmpty())
+                continue;
+            String[] pts = line.split("\t", -1);
+            if (pts.length == 2)
+                ret.addClass(pts[0], pts[1]);
+            else if (pts.length == 4 && pts[1].length() == 1)
+                ret.entry(pts[0]).add(pts[1].charAt(0), pts[2], pts[3]);
+            else
+                throw new IOException("Invalid side index line: " + line);
+        }
+        return ret;
+    }
+
+    /*
+     * Header, then a table of every string in sorted order, then each class as a string index, a side, and its members.
+     * Sides are stored as string index + 1, with 0 meaning none. Counts and indexes are variable length, so small indexes stay small.
+     */
+    private void writeBinary(DataOutputStream out) throws IOException {
+        Map<String, Entry> sorted = sorted();
+        TreeSet<String> strings = new TreeSet<>();
+        for (Map.Entry<String, Entry> cls : sorted.entrySet()) {
+            strings.add(cls.getKey());
+            if (cls.getValue().side != null)
+                strings.add(cls.getValue().side);
+            for (Map.Entry<String, String> member : cls.getValue().sorted().entrySet()) {
+                strings.add(member.getKey().substring(1));
+                strings.add(member.getValue());
+            }
+        }
+        Map<String, Integer> ids = new TreeMap<>();
+        for (String str : strings)
+            ids.put(str, ids.size());
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeVarInt(out, strings.size());
+        for (String str : strings)
+            out.writeUTF(str);
+
+        writeVarInt(out, sorted.size());
+        for (Map.Entry<String, Entry> cls : sorted.entrySet()) {
+            Entry entry = cls.getValue();
+            Map<String, String> members = entry.sorted();
+            writeVarInt(out, ids.get(cls.getKey()));
+            writeVarInt(out, entry.side == null ? 0 : ids.get(entry.side) + 1);
+            writeVarInt(out, members.size());
+            for (Map.Entry<String, String> member : members.entrySet()) {
+                out.writeByte(member.getKey().charAt(0));
+                writeVarInt(out, ids.get(member.getKey().substring(1)));
+                writeVarInt(out, ids.get(member.getValue()));
+            }
+        }
+        out.flush();
+    }
+
+    private static SideIndex readBinary(DataInputStream in) throws IOException {
+        in.readInt(); // Magic, already checked
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported side index version: " + version);
+
+        List<String> strings = new ArrayList<>();
+        for (int x = readVarInt(in); x > 0; x--)
+            strings.add(in.readUTF());
+
+        SideIndex ret = new SideIndex();
+        for (int x = readVarInt(in); x > 0; x--) {
+            Entry entry = ret.entry(strings.get(readVarInt(in)));
+            int side = readVarInt(in);
+            if (side != 0)
+                entry.side = strings.get(side - 1);
+            for (int y = readVarInt(in); y > 0; y--) {
+                char kind = (char)in.readUnsignedByte();
+                String name = strings.get(readVarInt(in));
+                entry.add(kind, name, strings.get(readVarInt(in)));
+            }
+        }
+        return ret;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int ret = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            ret |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return ret;
+        }
+        throw new IOException("Invalid side index, malformed number");
+    }
+
+    private Map<String, Entry> sorted() {
+        return new TreeMap<>(this.classes);
+    }
+
+    private static class Entry {
+        private volatile String side;
+        // Keyed by the kind followed by the name, so sorting groups fields, then interfaces, then methods.
+        private final Map<String, String> members = new TreeMap<>();
+
+        private synchronized void add(char kind, String name, String side) {
+            this.members.put(kind + name, side);
+        }
+
+        private synchronized String get(char kind, String name) {
+            return this.members.get(kind + name);
+        }
+
+        private synchronized Map<String, String> sorted() {
+            return new TreeMap<>(this.members);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * Where jars that can't be read in place are kept while they are processed: nested jars that are compressed, and jars read from a stream.
+ * They go into direct buffers, outside the Java heap, while they fit the memory budget, and into a temp file once they don't.
+ * Either way only the classes currently being worked on are ever on the heap.
+ *
+ * The budget is shared by everything using the same store, so one store can be passed to several merges to bound them all together.
+ * Buffers are freed as soon as the last reader using them is closed. On a JVM where that isn't possible they count against the budget
+ * until they are garbage collected, so the budget always bounds the memory actually held.
+ */
+public class SpillStore {
+    public static final long DEFAULT_BUDGET = 128L << 20;
+    private static final int MIN_BUFFER = 1 << 16;
+    private static final Consumer<ByteBuffer> FREE = findFree();
+
+    private final long budget;
+    private final Path directory;
+    private final AtomicLong used = new AtomicLong();
+    // Buffers that couldn't be freed, and still count against the budget until they are collected.
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
+    private final Set<Allocation> uncollected = ConcurrentHashMap.newKeySet();
+
+    public SpillStore() {
+        this(DEFAULT_BUDGET);
+    }
+
+    // Temp files are created directly in the system temp directory.
+    public SpillStore(long budget) {
+        this(budget, null);
+    }
+
+    /*
+     * A budget of 0 sends everything straight to temp files in the directory, or the system temp directory if it is null.
+     * Temp files are only readable by the current user, and are deleted once the last reader using them is closed.
+     */
+    public SpillStore(long budget, Path directory) {
+        if (budget < 0)
+            throw new IllegalArgumentException("Invalid memory budget: " + budget);
+        this.budget = budget;
+        this.directory = directory;
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+
+    // Bytes of the budget currently held by open readers.
+    public long getUsed() {
+        return this.used.get();
+    }
+
+    /*
+     * Reads a whole zip from the stream, size bytes long, or -1 if that isn't known, and opens it.
+     * The memory or temp file is released when the reader is closed. The stream is not closed.
+     */
+    ZipReader open(InputStream in, long size) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer buf = size > Integer.MAX_VALUE ? null : allocate(size < 0 ? MIN_BUFFER : (int)size);
+        if (buf == null)
+            return spill(null, channel);
+
+        try {
+            if (size >= 0) {
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf) < 0)
+                        throw new EOFException("Expected " + size + " bytes, read " + buf.position());
+                }
+                if (in.read() != -1)
+                    throw new IOException("Expected " + size + " bytes, read more");
+            } else {
+                // Size unknown, so grow until it fits or the budget runs out.
+                while (channel.read(buf) >= 0) {
+                    if (buf.hasRemaining())
+                        continue;
+                    ByteBuffer next = buf.capacity() > Integer.MAX_VALUE / 2 ? null : allocate(buf.capacity() * 2);
+                    buf.flip();
+                    if (next == null) {
+                        ZipReader ret = spill(buf, channel);
+                        release(buf).run();
+                        return ret;
+                    }
+                    // Both buffers are counted until the old one is freed, so growing never goes over the budget.
+                    next.put(buf);
+                    release(buf).run();
+                    buf = next;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            release(buf).run();
+            throw e;
+        }
+        buf.flip();
+        return ZipReader.owned(buf, release(buf));
+    }
+
+    // Writes whatever was already read, then the rest of the stream, to a temp file. The caller still owns the head buffer.
+    private ZipReader spill(ByteBuffer head, ReadableByteChannel in) throws IOException {
+        Path file;
+        if (this.directory == null) {
+            file = Files.createTempFile("mergetool-spill", ".jar", ownerOnly());
+        } else {
+            Files.createDirectories(this.directory);
+            file = Files.createTempFile(this.directory, "spill", ".jar", ownerOnly());
+        }
+        try {
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                if (head != null) {
+                    while (head.hasRemaining())
+                        out.write(head);
+                }
+                long pos = out.position();
+                for (long len; (len = out.transferFrom(in, pos, 1 << 20)) > 0; )
+                    pos += len;
+            }
+            return ZipReader.owned(file, () -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly() {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            return new FileAttribute<?>[0];
+        return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)) };
+    }
+
+    // A direct buffer if it fits in what's left of the budget, null if it doesn't.
+    private ByteBuffer allocate(int size) {
+        for (Reference<?> ref; (ref = this.collected.poll()) != null; ) {
+            if (this.uncollected.remove(ref))
+                this.used.addAndGet(-((Allocation)ref).size);
+        }
+
+        long current;
+        do {
+            current = this.used.get();
+            if (current + size > this.budget)
+                return null;
+        } while (!this.used.compareAndSet(current, current + size));
+
+        try {
+            return ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError e) {
+            // The JVM's own direct memory limit is lower than the budget, so use a temp file instead.
+            this.used.addAndGet(-size);
+            return null;
+        }
+    }
+
+    /*
+     * Frees the buffer and returns its size to the budget. Only run once nothing can read from the buffer again,
+     * which ZipReader guarantees by only releasing once every reader sharing it is closed.
+     */
+    private Runnable release(ByteBuffer buf) {
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (!released.compareAndSet(false, true))
+                return;
+            if (FREE != null) {
+                try {
+                    FREE.accept(buf);
+                    this.used.addAndGet(-buf.capacity());
+                    return;
+                } catch (RuntimeException e) {
+                    // Fall back to waiting for the collector
+                }
+            }
+            this.uncollected.add(new Allocation(buf, this.collected));
+        };
+    }
+
+    private static class Allocation extends PhantomReference<ByteBuffer> {
+        private final int size;
+
+        private Allocation(ByteBuffer buf, ReferenceQueue<ByteBuffer> queue) {
+            super(buf, queue);
+            this.size = buf.capacity();
+        }
+    }
+
+    /*
+     * Direct buffers can only be freed early through internal APIs, Unsafe.invokeCleaner on Java 9 and later, or the buffer's Cleaner on Java 8.
+     * Returns null if neither is available, in which case buffers are left to the garbage collector.
+     */
+    private static Consumer<ByteBuffer> findFree() {
+        try {
+            Class<?> cls = Class.forName("sun.misc.Unsafe");
+            Field field = cls.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method invokeCleaner = cls.getMethod("invokeCleaner", ByteBuffer.class);
+            return buf -> invoke(invokeCleaner, unsafe, buf);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not Java 9+
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buf -> invoke(clean, invoke(cleaner, buf));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not free direct buffer", e);
+        }
+    }
+}
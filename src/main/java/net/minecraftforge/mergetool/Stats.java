@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Timings and counters from a merge or strip run. Phase times are summed over every thread that did work in that phase,
+ * so with more than one thread they can add up to more than the wall time.
+ */
+public class Stats {
+    public enum Phase {
+        READ_CLIENT, // Reading and inflating client classes
+        READ_SERVER, // Reading and inflating server classes
+        READ,        // Reading and inflating classes in an N-way merge
+        MERGE,       // Merging classes that exist on both sides
+        ANNOTATE,    // Annotating classes that only exist on one side
+        STRIP,       // Stripping annotations
+        COPY,        // Copying entries that are already compressed, resources and reused classes
+        COMPRESS,    // Compressing new entries
+        WRITE        // Writing entries to the output
+    }
+
+    public enum Counter {
+        CLASSES_IDENTICAL,   // Shared classes that were identical on both sides
+        CLASSES_CACHED,      // Shared classes loaded from the merge cache
+        CLASSES_UNCHANGED,   // Shared classes that differed, but had nothing to merge
+        CLASSES_MERGED,      // Shared classes that needed a full merge
+        CLASSES_REUSED,      // Classes copied from the previous output in incremental mode
+        CLASSES_CLIENT_ONLY,
+        CLASSES_SERVER_ONLY,
+        CLASSES_FILTERED,    // Classes skipped by the filter
+        CLASSES_STRIPPED,
+        CLASSES_SIDED,       // Classes in an N-way merge missing from at least one side
+        FIELDS_CLIENT_ONLY,  // Client fields added to the server side of merged classes
+        FIELDS_SERVER_ONLY,  // Server fields added to the client side of merged classes
+        METHODS_CLIENT_ONLY,
+        METHODS_SERVER_ONLY,
+        FIELDS_SIDED,        // Fields in an N-way merge missing from at least one side of their class
+        METHODS_SIDED,
+        RESOURCES,
+        BYTES_IN,            // Compressed bytes read from the inputs
+        BYTES_OUT            // Size of the output
+    }
+
+    // Flight recorder was only added in 8u262, so check for it before the event class is ever loaded.
+    private static final boolean EVENTS = hasFlightRecorder();
+
+    private final AtomicLongArray phases = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private volatile long wallTime = 0;
+
+    public long get(Counter counter) {
+        return this.counters.get(counter.ordinal());
+    }
+
+    public long getNanos(Phase phase) {
+        return this.phases.get(phase.ordinal());
+    }
+
+    public long getWallNanos() {
+        return this.wallTime;
+    }
+
+    void add(Counter counter, long value) {
+        this.counters.addAndGet(counter.ordinal(), value);
+    }
+
+    void increment(Counter counter) {
+        this.counters.incrementAndGet(counter.ordinal());
+    }
+
+    // Adds the time since start, which is a value from System.nanoTime
+    void time(Phase phase, long start) {
+        this.phases.addAndGet(phase.ordinal(), System.nanoTime() - start);
+    }
+
+    void setWallNanos(long nanos) {
+        this.wallTime = nanos;
+    }
+
+    /*
+     * Starts a flight recorder event for a single class, the result should only be passed to endClass.
+     */
+    static Object beginClass() {
+        return EVENTS ? ClassEvent.start() : null;
+    }
+
+    static void endClass(Object event, String operation, byte[] data) {
+        if (event != null)
+            ClassEvent.finish(event, operation, data);
+    }
+
+    private static boolean hasFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Stats.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public String toJson() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("{\n  \"wallMs\": ").append(this.wallTime / 1_000_000).append(",\n  \"phasesMs\": {");
+        for (Phase phase : Phase.values())
+            buf.append(phase.ordinal() == 0 ? "\n" : ",\n").append("    \"").append(name(phase)).append("\": ").append(getNanos(phase) / 1_000_000);
+        buf.append("\n  },\n  \"counters\": {");
+        for (Counter counter : Counter.values())
+            buf.append(counter.ordinal() == 0 ? "\n" : ",\n").append("    \"").append(name(counter)).append("\": ").append(get(counter));
+        buf.append("\n  }\n}\n");
+        return buf.toString();
+    }
+
+    // READ_CLIENT -> readClient
+    private static String name(Enum<?> value) {
+        String[] pts = value.name().toLowerCase(Locale.ENGLISH).split("_");
+        StringBuilder buf = new StringBuilder(pts[0]);
+        for (int x = 1; x < pts.length; x++)
+            buf.append(Character.toUpperCase(pts[x].charAt(0))).append(pts[x], 1, pts[x].length());
+        return buf.toString();
+    }
+}
@@ -5,25 +5,67 @@
 package net.minecraftforge.mergetool;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 
+import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.tree.AnnotationNode;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 public class Stripper {
     private Set<String> classes = new HashSet<>();
     private Set<String> targets = new HashSet<>();
+    private int compression = Deflater.DEFAULT_COMPRESSION;
+    private int threads = 1;
+    private SpillStore spill = new SpillStore();
+    private Stats stats = new Stats();
+
+    /*
+     * Compression used for stripped classes, 0 stores them without compression, 1-9 is the deflate level, and -1 uses the default level.
+     * Every other entry is copied the way it was compressed in the input.
+     */
+    public Stripper compression(int level) {
+        if (level < -1 || level > 9)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.compression = level;
+        return this;
+    }
+
+    /*
+     * Number of threads used to strip and compress entries, values less then 1 will use one thread per available processor.
+     * When processing several jars, each jar gets one thread instead. Entries are always written in the same order, so the output does not depend on the thread count.
+     */
+    public Stripper threads(int threads) {
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        return this;
+    }
+
+    /*
+     * Where inputs that can't be read in place, such as streams, are kept while stripping. See SpillStore.
+     */
+    public Stripper spill(SpillStore spill) {
+        this.spill = spill;
+        return this;
+    }
 
     /*
      * Data files list whole classes, or methods that should be stripped out.
@@ -47,63 +89,210 @@ public class Stripper {
         });
     }
 
+    // Snapshot of the currently loaded data, so Merger can strip classes as they are merged.
+    Rules getRules() {
+        return new Rules(this.classes, this.targets);
+    }
+
+    /*
+     * Timings and counters from the last run.
+     */
+    public Stats getStats() {
+        return this.stats;
+    }
+
     public void process(File input, File output) throws IOException {
+        process(JarSource.of(input), toSink(output));
+    }
+
+    /*
+     * Strips a jar from anywhere into anywhere, such as a jar that is already in memory into a callback, without touching the disk.
+     */
+    public Stats process(JarSource input, JarSink output) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = this.stats = new Stats();
+        process(getRules(), input, output, this.threads, stats);
+        stats.setWallNanos(System.nanoTime() - start);
+        return stats;
+    }
+
+    /*
+     * Strips every input jar into its matching output, running the jobs concurrently on the configured number of threads.
+     * The rules are loaded once and shared by every job. All jobs are run even if one fails, and any failures are thrown together at the end.
+     * The returned stats are the totals over every job.
+     */
+    public Stats process(Map<File, File> jobs) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = this.stats = new Stats();
+        Rules rules = getRules();
+        if (this.threads <= 1 || jobs.size() <= 1) {
+            for (Map.Entry<File, File> job : jobs.entrySet())
+                process(rules, JarSource.of(job.getKey()), toSink(job.getValue()), this.threads, stats);
+            stats.setWallNanos(System.nanoTime() - start);
+            return stats;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads, jobs.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<File, File> job : jobs.entrySet()) {
+                futures.add(pool.submit(() -> {
+                    process(rules, JarSource.of(job.getKey()), toSink(job.getValue()), 1, stats);
+                    return null;
+                }));
+            }
+
+            IOException error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while stripping jars", e);
+                } catch (ExecutionException e) {
+                    if (error == null)
+                        error = new IOException("Failed to strip jars");
+                    error.addSuppressed(e.getCause());
+                }
+            }
+            if (error != null)
+                throw error;
+        } finally {
+            pool.shutdownNow();
+        }
+        stats.setWallNanos(System.nanoTime() - start);
+        return stats;
+    }
+
+    private static JarSink toSink(File output) throws IOException {
         if (output.exists()) output.delete();
         if (!output.getParentFile().exists()) output.getParentFile().mkdirs();
         output.createNewFile();
+        return JarSink.jar(output);
+    }
 
-        Set<String> types = new HashSet<>();
-        for (AnnotationVersion an : AnnotationVersion.values()) {
-            for (String cls : an.getClasses())
-                types.add('L' + cls + ';');
+    private void process(Rules rules, JarSource input, JarSink output, int threads, Stats stats) throws IOException {
+        try (ZipReader zip = input.open(this.spill);
+             EntryWriter out = output.open(stats)) {
+            List<Callable<ZipWriter.Entry>> tasks = new ArrayList<>();
+            for (ZipReader.Entry entry : zip.getEntries()) {
+                if (entry.name.endsWith(".class") && rules.contains(entry.name.substring(0, entry.name.length() - 6))) {
+                    stats.increment(Stats.Counter.CLASSES_STRIPPED);
+                    tasks.add(() -> {
+                        byte[] data = strip(rules, zip.read(entry), stats);
+                        long start = System.nanoTime();
+                        ZipWriter.Entry ret = out.newEntry(entry.name, entry.dosTime, data, this.compression);
+                        stats.time(Stats.Phase.COMPRESS, start);
+                        return ret;
+                    });
+                } else {
+                    tasks.add(() -> { // Everything else is moved over still compressed when writing a jar
+                        long start = System.nanoTime();
+                        ZipWriter.Entry ret = out.copyEntry(entry.name, entry.dosTime, zip, entry);
+                        stats.time(Stats.Phase.COPY, start);
+                        return ret;
+                    });
+                }
+                stats.add(Stats.Counter.BYTES_IN, entry.compressedSize);
+            }
+            out.writeAll(tasks, threads, null);
         }
+    }
 
-        try (ZipInputStream  zis = new ZipInputStream(new FileInputStream(input));
-             ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(output))) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                ZipEntry next = new ZipEntry(entry.getName());
-                next.setTime(entry.getTime());
-                next.setLastModifiedTime(entry.getLastModifiedTime());
-                zos.putNextEntry(next);
-                if (!entry.getName().endsWith(".class") || !classes.contains(entry.getName().substring(0, entry.getName().length() - 6))) {
-                    int read;
-                    byte[] buf = new byte[0x100];
-                    while ((read = zis.read(buf, 0, buf.length)) != -1)
-                        zos.write(buf, 0, read);
-                } else {
-                    ClassReader reader = new ClassReader(zis);
-                    ClassNode node = new ClassNode();
-                    reader.accept(node, 0);
-
-                    if (node.methods != null) {
-                        node.methods.forEach(mtd -> {
-                            if (targets.contains(node.name + ' ' + mtd.name + mtd.desc)) {
-                                if (mtd.visibleAnnotations != null) {
-                                    Iterator<AnnotationNode> itr = mtd.visibleAnnotations.iterator();
-                                    while (itr.hasNext()) {
-                                        if (types.contains(itr.next().desc))
-                                            itr.remove();
-                                    }
-                                }
-                            }
-                        });
-                    }
-
-                    if (node.visibleAnnotations != null) {
-                        Iterator<AnnotationNode> itr = node.visibleAnnotations.iterator();
-                        while (itr.hasNext()) {
-                            if (types.contains(itr.next().desc))
-                                itr.remove();
-                        }
-                    }
+    /*
+     * Removes the marker annotations from the class, and from any targeted methods.
+     * Everything else is passed straight through to a writer built from the reader, so untouched methods are copied as is.
+     */
+    static byte[] strip(Rules rules, byte[] data, Stats stats) {
+        long start = System.nanoTime();
+        Object event = Stats.beginClass();
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(rules.wrap(writer), 0);
+        byte[] ret = writer.toByteArray();
+        Stats.endClass(event, "strip", data);
+        stats.time(Stats.Phase.STRIP, start);
+        return ret;
+    }
+
+    /*
+     * Immutable snapshot of the loaded data, so it can be shared by concurrent jobs.
+     */
+    static class Rules {
+        private final Set<String> classes;
+        private final Set<String> targets;
+        private final Set<String> types = new HashSet<>();
+        private final String hash;
+
+        private Rules(Set<String> classes, Set<String> targets) {
+            this.classes = Collections.unmodifiableSet(new HashSet<>(classes));
+            this.targets = Collections.unmodifiableSet(new HashSet<>(targets));
+            for (AnnotationVersion an : AnnotationVersion.values()) {
+                for (String cls : an.getClasses())
+                    this.types.add('L' + cls + ';');
+            }
+            this.hash = hash(targets);
+        }
+
+        boolean contains(String cls) {
+            return this.classes.contains(cls);
+        }
+
+        // Identifies the rules, so anything stored from an earlier run is only reused if it was stripped the same way.
+        String getHash() {
+            return this.hash;
+        }
+
+        /*
+         * Removes the marker annotations from everything passed through the returned visitor, that belongs to the class or a targeted method.
+         * Only the targeted methods are wrapped, so the rest can still be copied as is when the delegate is a ClassWriter built from the source ClassReader.
+         */
+        ClassVisitor wrap(ClassVisitor cv) {
+            return new ClassVisitor(Opcodes.ASM9, cv) {
+                private String name;
+
+                @Override
+                public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                    this.name = name;
+                    super.visit(version, access, name, signature, superName, interfaces);
+                }
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    return visible && Rules.this.types.contains(descriptor) ? null : super.visitAnnotation(descriptor, visible);
+                }
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+                    if (mv == null || !Rules.this.targets.contains(this.name + ' ' + name + descriptor))
+                        return mv;
 
-                    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                    node.accept(writer);
-                    zos.write(writer.toByteArray());
+                    return new MethodVisitor(Opcodes.ASM9, mv) {
+                        @Override
+                        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                            return visible && Rules.this.types.contains(descriptor) ? null : super.visitAnnotation(descriptor, visible);
+                        }
+                    };
                 }
-                zos.closeEntry();
+            };
+        }
+
+        private static String hash(Set<String> targets) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Missing SHA-256 MessageDigest", e);
+            }
+            for (String target : new TreeSet<>(targets)) {
+                digest.update(target.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)'\n');
             }
+            StringBuilder ret = new StringBuilder();
+            for (byte b : digest.digest())
+                ret.append(String.format("%02x", b & 0xFF));
+            return ret.toString();
         }
     }
 }
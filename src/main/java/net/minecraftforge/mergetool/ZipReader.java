@@ -0,0 +1,582 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/*
+ * Random access zip reader driven entirely by the central directory.
+ * Entries are indexed up front, and their data is only read when requested, using positional reads so it is safe to use from multiple threads.
+ * The zip can be a file, or already in memory. Entries that were never zipped can also be wrapped, so everything can be read the same way.
+ */
+class ZipReader implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    // Time used for entries that were never in a zip, the earliest time the format can store.
+    private static final long DEFAULT_TIME = (1 << 21) | (1 << 16);
+    private static final int STREAM_BUFFER = 1 << 16;
+
+    private final Storage storage;
+    private final long start;
+    private final long length;
+    private final Map<String, Entry> entries;
+
+    public ZipReader(File file) throws IOException {
+        this(new FileStorage(file.toPath()));
+    }
+
+    /*
+     * Reads a zip file that is already in memory, from the buffer's position to its limit. The buffer itself is not modified.
+     */
+    public ZipReader(ByteBuffer zip) throws IOException {
+        this(new BufferStorage(zip.slice()));
+    }
+
+    /*
+     * Wraps entries that are already in memory, keyed by their name in the zip. The arrays are used as is, so they must not be modified while this is in use.
+     */
+    public ZipReader(Map<String, byte[]> entries) {
+        this.storage = null;
+        this.start = 0;
+        this.length = 0;
+        Map<String, Entry> ret = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            byte[] data = entry.getValue();
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            ret.put(entry.getKey(), new Entry(entry.getKey(), ZipEntry.STORED, DEFAULT_TIME, crc.getValue(), data.length, data.length, -1, data));
+        }
+        this.entries = Collections.unmodifiableMap(ret);
+    }
+
+    private ZipReader(Storage storage) throws IOException {
+        this(storage, 0, storage.size());
+    }
+
+    /*
+     * Reads a zip that was spilled to a buffer or temp file, running release once this and any nested reader opened from it are all closed.
+     */
+    static ZipReader owned(ByteBuffer zip, Runnable release) throws IOException {
+        return new ZipReader(new SharedStorage(new BufferStorage(zip.slice()), release));
+    }
+
+    static ZipReader owned(Path file, Runnable release) throws IOException {
+        Storage storage;
+        try {
+            storage = new FileStorage(file);
+        } catch (IOException | RuntimeException e) {
+            release.run();
+            throw e;
+        }
+        return new ZipReader(new SharedStorage(storage, release));
+    }
+
+    /*
+     * Reads a zip file stored in the range [start, start+length) of the storage.
+     */
+    private ZipReader(Storage storage, long start, long length) throws IOException {
+        this.storage = storage;
+        this.start = start;
+        this.length = length;
+        try {
+            this.entries = Collections.unmodifiableMap(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            storage.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Opens a zip stored inside this one, such as a jar stored inside another jar. When it is stored uncompressed it is read directly from its range in this zip,
+     * otherwise it is inflated into the spill store. The returned reader is independent, and can be used after this one is closed.
+     */
+    public ZipReader openNested(Entry entry, SpillStore spill) throws IOException {
+        if (entry.method != ZipEntry.STORED || this.storage == null) {
+            try (InputStream in = openStream(entry)) {
+                return spill.open(in, entry.size);
+            }
+        }
+        return new ZipReader(this.storage.reopen(), this.start + getDataOffset(entry), entry.size);
+    }
+
+    public Collection<Entry> getEntries() {
+        return this.entries.values();
+    }
+
+    public Entry getEntry(String name) {
+        return this.entries.get(name);
+    }
+
+    /*
+     * Reads and inflates the entry's data, into a buffer sized from the size recorded in the central directory.
+     * The data is checked against the entry's CRC, the same as ZipInputStream does, so damaged entries are never returned.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE)
+            throw new IOException("Zip entry too large: " + entry.name + " " + entry.size);
+
+        if (entry.data != null)
+            return entry.data;
+
+        if (entry.method == ZipEntry.STORED)
+            return checkCrc(entry, readRaw(entry));
+
+        if (entry.method != ZipEntry.DEFLATED)
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name);
+
+        byte[] raw = readRaw(entry);
+        byte[] ret = new byte[(int)entry.size];
+        Inflater inf = new Inflater(true);
+        try {
+            inf.setInput(raw);
+            int off = 0;
+            while (off < ret.length) {
+                int len = inf.inflate(ret, off, ret.length - off);
+                if (len == 0 && (inf.finished() || inf.needsDictionary() || inf.needsInput()))
+                    break;
+                off += len;
+            }
+            if (off != ret.length)
+                throw new IOException("Invalid zip entry " + entry.name + ": expected " + ret.length + " bytes, inflated " + off);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data for " + entry.name, e);
+        } finally {
+            inf.end();
+        }
+        return checkCrc(entry, ret);
+    }
+
+    private static byte[] checkCrc(Entry entry, byte[] data) throws ZipException {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != entry.crc)
+            throw badCrc(entry, crc.getValue());
+        return data;
+    }
+
+    private static ZipException badCrc(Entry entry, long actual) {
+        return new ZipException(String.format("invalid entry CRC for %s (expected 0x%x but got 0x%x)", entry.name, entry.crc, actual));
+    }
+
+    /*
+     * Streams the entry's inflated data, a chunk at a time, for entries too large to read in one go. Only valid while this reader is open.
+     * The CRC and size are checked once the end is reached, so a damaged entry fails on its last read rather than being passed on.
+     */
+    public InputStream openStream(Entry entry) throws IOException {
+        if (entry.data != null)
+            return new ByteArrayInputStream(entry.data);
+        if (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED)
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name);
+
+        if (entry.method == ZipEntry.STORED)
+            return new CheckedStream(entry, new RawStream(getDataOffset(entry), entry.compressedSize, false));
+        InputStream raw = new RawStream(getDataOffset(entry), entry.compressedSize, true);
+        Inflater inf = new Inflater(true);
+        return new CheckedStream(entry, new InflaterInputStream(raw, inf, STREAM_BUFFER) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        });
+    }
+
+    private static class CheckedStream extends FilterInputStream {
+        private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long read = 0;
+
+        private CheckedStream(Entry entry, InputStream in) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int ret = super.read(b, off, len);
+            if (ret == -1) {
+                if (this.read != this.entry.size)
+                    throw new ZipException("invalid entry size for " + this.entry.name + " (expected " + this.entry.size + " but got " + this.read + " bytes)");
+                if (this.crc.getValue() != this.entry.crc)
+                    throw badCrc(this.entry, this.crc.getValue());
+            } else if (ret > 0) {
+                this.crc.update(b, off, ret);
+                this.read += ret;
+            }
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still have to be counted, so read them instead.
+            byte[] b = new byte[(int)Math.min(n, 512)];
+            int ret = read(b, 0, b.length);
+            return ret == -1 ? 0 : ret;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /*
+     * Reads the entry's data exactly as it is stored in the file, without inflating it.
+     */
+    public byte[] readRaw(Entry entry) throws IOException {
+        if (entry.data != null)
+            return entry.data;
+        if (entry.compressedSize > Integer.MAX_VALUE)
+            throw new IOException("Zip entry too large: " + entry.name + " " + entry.compressedSize);
+        byte[] ret = new byte[(int)entry.compressedSize];
+        readFully(getDataOffset(entry), ByteBuffer.wrap(ret));
+        return ret;
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        long offset = entry.dataOffset;
+        if (offset == -1) {
+            ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(entry.headerOffset, header);
+            if (header.getInt(0) != LOCAL_HEADER)
+                throw new IOException("Invalid local header for " + entry.name);
+            offset = entry.headerOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+            entry.dataOffset = offset;
+        }
+        return offset;
+    }
+
+    // Positional, so any number of these can read from the same storage at once.
+    private class RawStream extends InputStream {
+        private final ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER);
+        private long position;
+        private long remaining;
+        private boolean padded;
+
+        private RawStream(long position, long length, boolean pad) {
+            this.position = position;
+            this.remaining = length;
+            this.padded = !pad;
+            this.buf.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!this.buf.hasRemaining()) {
+                if (this.remaining == 0) {
+                    // The inflater can need a byte past the end of the data to finish, the same dummy byte ZipFile gives it.
+                    if (this.padded)
+                        return -1;
+                    this.padded = true;
+                    b[off] = 0;
+                    return 1;
+                }
+                this.buf.clear();
+                this.buf.limit((int)Math.min(this.buf.capacity(), this.remaining));
+                readFully(this.position, this.buf);
+                this.buf.flip();
+                this.position += this.buf.limit();
+                this.remaining -= this.buf.limit();
+            }
+            len = Math.min(len, this.buf.remaining());
+            this.buf.get(b, off, len);
+            return len;
+        }
+    }
+
+    private void readFully(long position, ByteBuffer buf) throws IOException {
+        if (position < 0 || position + buf.remaining() > this.length)
+            throw new EOFException("Attempted to read outside of zip file: " + position);
+        position += this.start;
+        while (buf.hasRemaining()) {
+            int read = this.storage.read(buf, position);
+            if (read < 0)
+                throw new EOFException();
+            position += read;
+        }
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        int tail = (int)Math.min(this.length, END_SIZE + MAX_COMMENT);
+        ByteBuffer buf = ByteBuffer.allocate(tail).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(this.length - tail, buf);
+
+        int end = -1;
+        for (int x = tail - END_SIZE; x >= 0; x--) {
+            if (buf.getInt(x) == END_HEADER) {
+                end = x;
+                break;
+            }
+        }
+        if (end == -1)
+            throw new IOException("Invalid zip file, could not find end of central directory");
+
+        long endPos = this.length - tail + end;
+        long count = buf.getShort(end + 10) & 0xFFFF;
+        long cenSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+        long cenOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+        long cenEnd = endPos;
+
+        if ((count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) && end >= 20 && buf.getInt(end - 20) == ZIP64_LOCATOR) {
+            long zip64End = buf.getLong(end - 12);
+            ByteBuffer z64 = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(zip64End, z64);
+            if (z64.getInt(0) != ZIP64_END_HEADER)
+                throw new IOException("Invalid zip64 end of central directory");
+            count = z64.getLong(32);
+            cenSize = z64.getLong(40);
+            cenOffset = z64.getLong(48);
+            cenEnd = zip64End;
+        }
+
+        // Anything prepended to the zip shifts every recorded offset, so work out the real position from the end record.
+        long prefix = cenEnd - cenSize - cenOffset;
+        if (count < 0 || cenSize < 0 || cenOffset < 0 || prefix < 0 || cenSize > Integer.MAX_VALUE)
+            throw new IOException("Invalid zip file, bad central directory offset");
+        // Every entry takes at least 46 bytes, so a count that can't fit is corrupt, and shouldn't be used to size anything.
+        if (count > cenSize / 46)
+            throw new IOException("Invalid zip file, " + count + " entries can not fit in a " + cenSize + " byte central directory");
+
+        ByteBuffer cen = ByteBuffer.allocate((int)cenSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(cenOffset + prefix, cen);
+
+        Map<String, Entry> ret = new LinkedHashMap<>((int)count * 2);
+        int pos = 0;
+        for (long x = 0; x < count; x++) {
+            if (pos + 46 > cen.limit() || cen.getInt(pos) != CENTRAL_HEADER)
+                throw new IOException("Invalid zip file, bad central directory entry " + x);
+
+            int method     = cen.getShort(pos + 10) & 0xFFFF;
+            long dosTime   = cen.getInt(pos + 12) & 0xFFFFFFFFL;
+            long crc       = cen.getInt(pos + 16) & 0xFFFFFFFFL;
+            long csize     = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size      = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLen    = cen.getShort(pos + 28) & 0xFFFF;
+            int extraLen   = cen.getShort(pos + 30) & 0xFFFF;
+            int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+            long offset    = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            if (pos + 46 + nameLen + extraLen + commentLen > cen.limit())
+                throw new IOException("Invalid zip file, central directory entry " + x + " runs past the end of the directory");
+
+            String name = new String(cen.array(), pos + 46, nameLen, StandardCharsets.UTF_8);
+
+            if (size == 0xFFFFFFFFL || csize == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+                int extra = pos + 46 + nameLen;
+                int extraEnd = extra + extraLen;
+                while (extra + 4 <= extraEnd) {
+                    int tag = cen.getShort(extra) & 0xFFFF;
+                    int len = cen.getShort(extra + 2) & 0xFFFF;
+                    if (tag == 0x0001) {
+                        int field = extra + 4;
+                        int need = (size == 0xFFFFFFFFL ? 8 : 0) + (csize == 0xFFFFFFFFL ? 8 : 0) + (offset == 0xFFFFFFFFL ? 8 : 0);
+                        if (len < need || field + need > extraEnd)
+                            throw new IOException("Invalid zip file, short zip64 extra field for " + name);
+                        if (size == 0xFFFFFFFFL)   { size   = cen.getLong(field); field += 8; }
+                        if (csize == 0xFFFFFFFFL)  { csize  = cen.getLong(field); field += 8; }
+                        if (offset == 0xFFFFFFFFL) { offset = cen.getLong(field); }
+                        break;
+                    }
+                    extra += 4 + len;
+                }
+            }
+
+            if (size < 0 || csize < 0 || offset < 0 || offset + prefix >= this.length)
+                throw new IOException("Invalid zip file, bad size or offset for " + name);
+
+            ret.put(name, new Entry(name, method, dosTime, crc, csize, size, offset + prefix, null));
+            pos += 46 + nameLen + extraLen + commentLen;
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.storage != null)
+            this.storage.close();
+    }
+
+    private interface Storage extends Closeable {
+        long size() throws IOException;
+
+        int read(ByteBuffer dst, long position) throws IOException;
+
+        // A second handle to the same data, that can be closed separately.
+        Storage reopen() throws IOException;
+    }
+
+    // Counts the handles given out by reopen, so the underlying storage is only closed, and released, once every one of them is.
+    private static class SharedStorage implements Storage {
+        private final Storage storage;
+        private final Runnable release;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private SharedStorage(Storage storage, Runnable release) {
+            this.storage = storage;
+            this.release = release;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.storage.size();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return this.storage.read(dst, position);
+        }
+
+        @Override
+        public Storage reopen() {
+            this.refs.incrementAndGet();
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.refs.decrementAndGet() != 0)
+                return;
+            try {
+                this.storage.close();
+            } finally {
+                this.release.run();
+            }
+        }
+    }
+
+    private static class FileStorage implements Storage {
+        private final Path path;
+        private final FileChannel channel;
+
+        private FileStorage(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.channel.size();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return this.channel.read(dst, position);
+        }
+
+        @Override
+        public Storage reopen() throws IOException {
+            return new FileStorage(this.path);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    private static class BufferStorage implements Storage {
+        private final ByteBuffer buf;
+
+        private BufferStorage(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public long size() {
+            return this.buf.limit();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            if (position >= this.buf.limit())
+                return -1;
+            // Duplicates have their own position, so concurrent reads don't interfere with each other.
+            ByteBuffer src = this.buf.duplicate();
+            src.position((int)position);
+            int len = Math.min(src.remaining(), dst.remaining());
+            src.limit(src.position() + len);
+            dst.put(src);
+            return len;
+        }
+
+        @Override
+        public Storage reopen() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            // Owned by whoever created it
+        }
+    }
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long dosTime;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        private final long headerOffset;
+        private final byte[] data;
+        private volatile long dataOffset = -1;
+
+        private Entry(String name, int method, long dosTime, long crc, long compressedSize, long size, long headerOffset, byte[] data) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+            this.data = data;
+        }
+
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/*
+ * Minimal zip writer that takes fully prepared entries, so data can be compressed ahead of time on other threads,
+ * or copied from another zip file exactly as it was stored without inflating and deflating it again.
+ */
+class ZipWriter extends EntryWriter {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final OutputStream out;
+    // Offsets and sizes from here on are written as zip64.
+    private final long zip64Limit;
+    // Only the headers are kept for the central directory, so the data of written entries can be collected.
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final byte[] buf = new byte[64];
+    private long written = 0;
+
+    public ZipWriter(OutputStream out) {
+        this(out, null);
+    }
+
+    /*
+     * Time spent writing entries and the central directory, and the size of the zip, is added to the stats, if there are any.
+     */
+    public ZipWriter(OutputStream out, Stats stats) {
+        this(out, stats, 0xFFFFFFFFL);
+    }
+
+    // Lowering the limit writes zip64 records for small zips, so they can be tested without writing 4GB.
+    ZipWriter(OutputStream out, Stats stats, long zip64Limit) {
+        super(stats);
+        this.out = new BufferedOutputStream(out, 0x10000);
+        this.zip64Limit = zip64Limit;
+    }
+
+    /*
+     * Converts java time to the MS-DOS format stored in zip files, using the system time zone the same way ZipEntry does.
+     */
+    public static long toDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980)
+            return (1 << 21) | (1 << 16);
+        return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16 |
+               date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    /*
+     * Compresses the data for a new entry, level 0 stores it as is, otherwise it is the deflate level, or -1 for the default.
+     * This is safe to call from any thread, so entries can be compressed in parallel before they are written.
+     */
+    public static Entry compress(String name, long dosTime, byte[] data, int level) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        if (level == 0 || data.length == 0)
+            return new Entry(name, dosTime, ZipEntry.STORED, crc.getValue(), data.length, data);
+
+        Deflater def = new Deflater(level, true);
+        try {
+            def.setInput(data);
+            def.finish();
+            ByteArrayOutputStream ret = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] tmp = new byte[Math.max(64, Math.min(data.length, 0x10000))];
+            while (!def.finished()) {
+                int len = def.deflate(tmp);
+                ret.write(tmp, 0, len);
+            }
+            return new Entry(name, dosTime, ZipEntry.DEFLATED, crc.getValue(), data.length, ret.toByteArray());
+        } finally {
+            def.end();
+        }
+    }
+
+    /*
+     * Reads an entry's data exactly as it is stored in the source zip, so it can be written without recompressing it.
+     */
+    public static Entry copy(String name, long dosTime, ZipReader reader, ZipReader.Entry entry) throws IOException {
+        return new Entry(name, dosTime, entry.method, entry.crc, entry.size, reader.readRaw(entry));
+    }
+
+    @Override
+    Entry newEntry(String name, long dosTime, byte[] data, int level) {
+        return compress(name, dosTime, data, level);
+    }
+
+    @Override
+    Entry copyEntry(String name, long dosTime, ZipReader reader, ZipReader.Entry entry) throws IOException {
+        return copy(name, dosTime, reader, entry);
+    }
+
+    @Override
+    public void write(Entry entry) throws IOException {
+        if (!this.names.add(entry.name))
+            throw new ZipException("duplicate entry: " + entry.name);
+
+        long start = System.nanoTime();
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        this.entries.add(entry.header());
+        this.offsets.add(this.written);
+
+        putInt(0, LOCAL_HEADER);
+        putShort(4, entry.method == ZipEntry.STORED ? 10 : 20);
+        putShort(6, FLAG_UTF8);
+        putShort(8, entry.method);
+        putInt(10, (int)entry.dosTime);
+        putInt(14, (int)entry.crc);
+        putInt(18, entry.data.length);
+        putInt(22, (int)entry.size);
+        putShort(26, name.length);
+        putShort(28, 0);
+        write(this.buf, 30);
+        write(name, name.length);
+        write(entry.data, entry.data.length);
+        if (this.stats != null)
+            this.stats.time(Stats.Phase.WRITE, start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long time = System.nanoTime();
+        try {
+            long start = this.written;
+            for (int x = 0; x < this.entries.size(); x++) {
+                Entry entry = this.entries.get(x);
+                long offset = this.offsets.get(x);
+                boolean zip64 = offset >= this.zip64Limit;
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+
+                putInt(0, CENTRAL_HEADER);
+                putShort(4, zip64 ? 45 : entry.method == ZipEntry.STORED ? 10 : 20);
+                putShort(6, zip64 ? 45 : entry.method == ZipEntry.STORED ? 10 : 20);
+                putShort(8, FLAG_UTF8);
+                putShort(10, entry.method);
+                putInt(12, (int)entry.dosTime);
+                putInt(16, (int)entry.crc);
+                putInt(20, (int)entry.compressedSize);
+                putInt(24, (int)entry.size);
+                putShort(28, name.length);
+                putShort(30, zip64 ? 12 : 0);
+                putShort(32, 0); // Comment
+                putShort(34, 0); // Disk
+                putShort(36, 0); // Internal attributes
+                putInt(38, 0);   // External attributes
+                putInt(42, zip64 ? 0xFFFFFFFF : (int)offset);
+                write(this.buf, 46);
+                write(name, name.length);
+                if (zip64) {
+                    putShort(0, 0x0001);
+                    putShort(2, 8);
+                    putLong(4, offset);
+                    write(this.buf, 12);
+                }
+            }
+            long end = this.written;
+            long size = end - start;
+            int count = this.entries.size();
+
+            boolean zip64 = count >= 0xFFFF || start >= this.zip64Limit || size >= this.zip64Limit;
+            if (zip64) {
+                putInt(0, ZIP64_END_HEADER);
+                putLong(4, 44);
+                putShort(12, 45);
+                putShort(14, 45);
+                putInt(16, 0);
+                putInt(20, 0);
+                putLong(24, count);
+                putLong(32, count);
+                putLong(40, size);
+                putLong(48, start);
+                write(this.buf, 56);
+
+                putInt(0, ZIP64_LOCATOR);
+                putInt(4, 0);
+                putLong(8, end);
+                putInt(16, 1);
+                write(this.buf, 20);
+            }
+
+            putInt(0, END_HEADER);
+            putShort(4, 0);
+            putShort(6, 0);
+            putShort(8, zip64 ? 0xFFFF : count);
+            putShort(10, zip64 ? 0xFFFF : count);
+            putInt(12, zip64 ? 0xFFFFFFFF : (int)size);
+            putInt(16, zip64 ? 0xFFFFFFFF : (int)start);
+            putShort(20, 0);
+            write(this.buf, 22);
+            this.out.flush();
+        } finally {
+            this.out.close();
+            if (this.stats != null) {
+                this.stats.time(Stats.Phase.WRITE, time);
+                this.stats.add(Stats.Counter.BYTES_OUT, this.written);
+            }
+        }
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        this.out.write(data, 0, length);
+        this.written += length;
+    }
+
+    private void putShort(int offset, int value) {
+        this.buf[offset]     = (byte)value;
+        this.buf[offset + 1] = (byte)(value >>> 8);
+    }
+
+    private void putInt(int offset, int value) {
+        putShort(offset, value);
+        putShort(offset + 2, value >>> 16);
+    }
+
+    private void putLong(int offset, long value) {
+        putInt(offset, (int)value);
+        putInt(offset + 4, (int)(value >>> 32));
+    }
+
+    public static class Entry {
+        private final String name;
+        private final long dosTime;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final byte[] data;
+
+        private Entry(String name, long dosTime, int method, long crc, long size, byte[] data) {
+            this(name, dosTime, method, crc, size, data.length, data);
+        }
+
+        private Entry(String name, long dosTime, int method, long crc, long size, long compressedSize, byte[] data) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+        }
+
+        private Entry header() {
+            return new Entry(this.name, this.dosTime, this.method, this.crc, this.size, this.compressedSize, null);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        // The data as it is stored in the zip, only the uncompressed data for stored entries.
+        byte[] getData() {
+            return this.data;
+        }
+    }
+}
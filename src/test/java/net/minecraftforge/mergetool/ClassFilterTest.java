@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+public class ClassFilterTest {
+    @Test
+    public void acceptsEverythingWithoutRules() {
+        ClassFilter filter = new ClassFilter();
+        assertTrue(filter.test("a/B"));
+        assertTrue(filter.test("B"));
+    }
+
+    @Test
+    public void matchesExactNames() {
+        ClassFilter filter = new ClassFilter().include("net/minecraft/A").include("B");
+        assertTrue(filter.test("net/minecraft/A"));
+        assertTrue(filter.test("B"));
+        assertFalse(filter.test("net/minecraft/AB"));
+        assertFalse(filter.test("net/minecraft/A$Inner"));
+        assertFalse(filter.test("net/minecraft"));
+        assertFalse(filter.test("a/B"));
+    }
+
+    @Test
+    public void matchesManyExactNames() {
+        // Enough to grow the hash table several times
+        ClassFilter filter = new ClassFilter();
+        for (int x = 0; x < 1000; x++)
+            filter.include("pkg/C" + x);
+        for (int x = 0; x < 1000; x++) {
+            assertTrue(filter.test("pkg/C" + x));
+            assertFalse(filter.test("pkg/D" + x));
+        }
+    }
+
+    @Test
+    public void matchesPackages() {
+        ClassFilter filter = new ClassFilter().includePackage("net/minecraft");
+        assertTrue(filter.test("net/minecraft/A"));
+        assertFalse(filter.test("net/minecraft/client/A"), "Sub packages are not included");
+        assertFalse(filter.test("net/minecraftforge/A"));
+        assertFalse(filter.test("net/A"));
+        assertFalse(filter.test("A"));
+
+        // pkg/* is the same as a package rule
+        filter = new ClassFilter().include("net/minecraft/*");
+        assertTrue(filter.test("net/minecraft/A"));
+        assertFalse(filter.test("net/minecraft/client/A"));
+    }
+
+    @Test
+    public void matchesRecursivePackages() {
+        ClassFilter filter = new ClassFilter().include("net/minecraft/**");
+        assertTrue(filter.test("net/minecraft/A"));
+        assertTrue(filter.test("net/minecraft/client/renderer/A"));
+        assertFalse(filter.test("net/minecraftforge/A"));
+        assertFalse(filter.test("net/minecraft"));
+        assertFalse(filter.test("net/A"));
+    }
+
+    @Test
+    public void matchesPrefixes() {
+        ClassFilter filter = new ClassFilter().includePrefix("net/minecraft/client/Mine");
+        assertTrue(filter.test("net/minecraft/client/Minecraft"));
+        assertTrue(filter.test("net/minecraft/client/Minecraft$1"));
+        assertFalse(filter.test("net/minecraft/client/Main"));
+
+        // name** is the same as a prefix rule
+        filter = new ClassFilter().include("net/minecraft/client/Mine**");
+        assertTrue(filter.test("net/minecraft/client/Minecraft"));
+        assertTrue(filter.test("net/minecraft/client/Mine/A"));
+        assertFalse(filter.test("net/minecraft/client/Main"));
+    }
+
+    @Test
+    public void matchesGlobs() {
+        ClassFilter filter = new ClassFilter().include("a/*/C").include("b/**/C").include("c/?").include("*Test");
+        assertTrue(filter.test("a/x/C"));
+        assertFalse(filter.test("a/x/y/C"), "* does not cross packages");
+        assertTrue(filter.test("b/x/y/C"));
+        assertTrue(filter.test("b/x/C"));
+        assertFalse(filter.test("b/x/D"));
+        assertTrue(filter.test("c/D"));
+        assertFalse(filter.test("c/DE"));
+        assertFalse(filter.test("c//"), "? does not match a package separator");
+        assertTrue(filter.test("FooTest"));
+        assertFalse(filter.test("a/FooTest"));
+
+        assertTrue(new ClassFilter().include("**").test("any/thing/At/All"));
+    }
+
+    // Compares globs against the same rules written as regular expressions, over every short pattern and name.
+    @Test
+    public void matchesGlobsLikeRegex() {
+        Random rand = new Random(42);
+        String patternChars = "ab/*?";
+        String nameChars = "ab/";
+        for (int run = 0; run < 5000; run++) {
+            String pattern = random(rand, patternChars, 1 + rand.nextInt(7));
+            ClassFilter filter = new ClassFilter().include(pattern);
+            Pattern regex = toRegex(pattern);
+            for (int x = 0; x < 20; x++) {
+                String name = random(rand, nameChars, rand.nextInt(8));
+                assertEquals(regex.matcher(name).matches(), filter.test(name), "Pattern " + pattern + " name " + name);
+            }
+        }
+    }
+
+    @Test
+    public void excludesWinOverIncludes() {
+        ClassFilter filter = new ClassFilter().include("a/**").exclude("a/b/**");
+        assertTrue(filter.test("a/C"));
+        assertFalse(filter.test("a/b/C"));
+        assertFalse(filter.test("a/b/c/D"));
+        assertFalse(filter.test("z/C"), "Not included at all");
+
+        filter = new ClassFilter().includePackage("a").excludePackage("a");
+        assertFalse(filter.test("a/C"));
+    }
+
+    @Test
+    public void exactNamesWinOverPatterns() {
+        // Pull one class out of an included package, and one back into an excluded one
+        ClassFilter filter = new ClassFilter().includePackage("a").exclude("a/Hidden").excludePackage("b").include("b/Shown");
+        assertTrue(filter.test("a/C"));
+        assertFalse(filter.test("a/Hidden"));
+        assertFalse(filter.test("b/C"));
+        assertTrue(filter.test("b/Shown"));
+
+        // Between two exact rules the exclude still wins
+        filter = new ClassFilter().include("a/C").exclude("a/C");
+        assertFalse(filter.test("a/C"));
+    }
+
+    // --blacklist used to be ignored entirely, so a blacklist on its own has to remove just those classes.
+    @Test
+    public void blacklistOnItsOwn() {
+        ClassFilter filter = new ClassFilter().exclude("a/B");
+        assertFalse(filter.test("a/B"));
+        assertTrue(filter.test("a/C"));
+
+        filter = new ClassFilter().excludePackage("a/b/");
+        assertFalse(filter.test("a/b/C"));
+        assertTrue(filter.test("a/b/c/D"));
+        assertTrue(filter.test("a/C"));
+    }
+
+    // --whitelist-pkg used to compare pkg/ against a package name without the trailing slash, so it never matched.
+    @Test
+    public void whitelistPackagesInEitherForm() {
+        for (String pkg : new String[] { "net/minecraft", "net/minecraft/", "net.minecraft" }) {
+            ClassFilter filter = new ClassFilter().includePackage(pkg);
+            assertTrue(filter.test("net/minecraft/A"), pkg);
+            assertFalse(filter.test("net/minecraft/client/A"), pkg);
+            assertFalse(filter.test("com/A"), pkg);
+        }
+
+        // The default package was written as /
+        for (String pkg : new String[] { "", "/" }) {
+            ClassFilter filter = new ClassFilter().includePackage(pkg);
+            assertTrue(filter.test("A"), pkg);
+            assertFalse(filter.test("a/A"), pkg);
+        }
+    }
+
+    @Test
+    public void whitelistAndBlacklistTogether() {
+        // The same calls ConsoleMerger makes for --whitelist, --whitelist-pkg, --blacklist and --blacklist-pkg
+        ClassFilter filter = new ClassFilter().include("x/Y").includePackage("a").exclude("a/Bad").excludePackage("x");
+        assertTrue(filter.test("a/Good"));
+        assertFalse(filter.test("a/Bad"));
+        assertTrue(filter.test("x/Y"), "Exact whitelist entries win over a blacklisted package");
+        assertFalse(filter.test("x/Z"));
+        assertFalse(filter.test("b/C"));
+    }
+
+    private static String random(Random rand, String chars, int length) {
+        StringBuilder ret = new StringBuilder();
+        for (int x = 0; x < length; x++)
+            ret.append(chars.charAt(rand.nextInt(chars.length())));
+        return ret.toString();
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder ret = new StringBuilder();
+        for (int x = 0; x < glob.length(); x++) {
+            char c = glob.charAt(x);
+            if (c == '*' && x + 1 < glob.length() && glob.charAt(x + 1) == '*') {
+                ret.append(".*");
+                x++;
+            } else if (c == '*') {
+                ret.append("[^/]*");
+            } else if (c == '?') {
+                ret.append("[^/]");
+            } else {
+                ret.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(ret.toString());
+    }
+}
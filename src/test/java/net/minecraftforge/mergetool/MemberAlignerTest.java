@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class MemberAlignerTest {
+    /*
+     * The member alignment used to rescan the server list for every client member, and insert into both lists as it went.
+     * It was rewritten to be linear, and has to give exactly the same result, annotate the same members, and fail on the same inputs.
+     */
+    @Test
+    public void alignmentMatchesTheOriginal() {
+        Random rand = new Random(1234);
+        for (int run = 0; run < 20000; run++) {
+            int poolSize = rand.nextInt(run < 10000 ? 8 : 60);
+            List<String> pool = new ArrayList<>();
+            Map<String, Integer> lines = new HashMap<>();
+            for (int x = 0; x < poolSize; x++) {
+                pool.add("m" + x);
+                lines.put("m" + x, rand.nextInt(4) == 0 ? Integer.MAX_VALUE : rand.nextInt(poolSize * 2 + 1));
+            }
+            Collections.shuffle(pool, rand);
+
+            List<String> client = pick(pool, rand);
+            List<String> server = pick(pool, rand);
+            // Mostly the sides agree on the order of what they share, but sometimes they don't, and both versions have to reject that the same way.
+            if (server.size() > 1 && rand.nextInt(8) == 0)
+                Collections.swap(server, rand.nextInt(server.size()), rand.nextInt(server.size()));
+
+            Comparator<String> byName = (a, b) -> a == b ? 0 : a == null ? 1 : b == null ? -1 : a.compareTo(b);
+            Comparator<String> byLine = (a, b) -> a == b ? 0 : a == null ? 1 : b == null ? -1 : lines.get(a) - lines.get(b);
+            Comparator<String> tied = (a, b) -> 0;
+            for (Comparator<String> compare : Arrays.asList(byName, byLine, tied)) {
+                String expected = run(client, server, compare, true);
+                String actual = run(client, server, compare, false);
+                assertEquals(expected, actual, "client " + client + " server " + server);
+            }
+        }
+    }
+
+    private static List<String> pick(List<String> pool, Random rand) {
+        List<String> ret = new ArrayList<>();
+        int chance = 1 + rand.nextInt(4);
+        for (String key : pool) {
+            if (rand.nextInt(chance + 1) != 0)
+                ret.add(key);
+        }
+        return ret;
+    }
+
+    // The outcome as a string, so both the lists and the annotations, or the failure, can be compared in one go.
+    private static String run(List<String> client, List<String> server, Comparator<String> compare, boolean original) {
+        StringBuilder sided = new StringBuilder();
+        MemberAligner.OneSided<String> oneSided = (member, isClient) -> sided.append(isClient ? 'C' : 'S').append(member).append(' ');
+        List<String> ret;
+        try {
+            if (original) {
+                List<String> cList = new ArrayList<>(client);
+                List<String> sList = new ArrayList<>(server);
+                originalMerge(cList, sList, oneSided, compare);
+                assertEquals(cList, sList);
+                ret = cList;
+            } else {
+                ret = MemberAligner.align(client, server, key -> key, compare, oneSided);
+            }
+        } catch (IllegalStateException | IndexOutOfBoundsException e) {
+            return "failed";
+        }
+        return ret + " " + sided;
+    }
+
+    // The alignment as it was before it was made linear, without the debug output.
+    private static <T> void originalMerge(List<T> client, List<T> server, MemberAligner.OneSided<T> annotator, Comparator<T> compare) {
+        client.add(null);
+        server.add(null);
+        List<T> common = new ArrayList<>();
+        for (T ct : client) {
+            for (T st : server) {
+                if (eq(ct, st)) {
+                    common.add(ct);
+                    break;
+                }
+            }
+        }
+
+        int i = 0, mi = 0;
+        for (; i < client.size(); i++) {
+            T ct = client.get(i);
+            T st = server.get(i);
+            T mt = common.get(mi);
+
+            if (eq(ct, st)) {
+                mi++;
+                if (!eq(ct, mt))
+                    throw new IllegalStateException("merged list is in bad state");
+            } else if (eq(st, mt)) {
+                server.add(i, annotate(annotator, ct, true));
+            } else if (eq(ct, mt)) {
+                client.add(i, annotate(annotator, st, false));
+            } else {
+                if (compare.compare(ct, st) > 0)
+                    client.add(i, annotate(annotator, st, false));
+                else
+                    server.add(i, annotate(annotator, ct, true));
+            }
+        }
+
+        if (i < server.size() || mi < common.size() || (client.size() != server.size()))
+            throw new IllegalStateException("merged list is in bad state: " + i + " " + mi);
+
+        client.remove(client.size() - 1);
+        server.remove(server.size() - 1);
+    }
+
+    private static <T> T annotate(MemberAligner.OneSided<T> annotator, T member, boolean isClient) {
+        annotator.accept(member, isClient);
+        return member;
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return String.valueOf(a).equals(String.valueOf(b));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/*
+ * Incremental runs copy classes from the previous output, so every one of them has to produce exactly what a fresh merge would.
+ */
+public class MergerTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    public void reusesUnchangedInputs() throws IOException {
+        Jars jars = new Jars(0);
+        File output = this.temp.resolve("merged.jar").toFile();
+        Merger first = incremental(jars, output);
+        first.process();
+        assertEquals(0, first.getReusedClasses());
+        assertTrue(new File(output.getPath() + ".inputs").exists());
+
+        Merger second = incremental(jars, output);
+        second.process();
+        assertEquals(jars.classes(), second.getReusedClasses());
+        assertEntries(fresh(jars), output);
+    }
+
+    // A normal merge to the same output used to leave the inputs from the last incremental run behind, describing a jar that was gone.
+    @Test
+    public void nonIncrementalRunsDropTheInputs() throws IOException {
+        Jars one = new Jars(1);
+        Jars two = new Jars(2);
+        File output = this.temp.resolve("merged.jar").toFile();
+
+        incremental(one, output).process();
+        new Merger(two.client, two.server, output).annotate(AnnotationVersion.API, true).process();
+        assertFalse(new File(output.getPath() + ".inputs").exists());
+
+        Merger merger = incremental(one, output);
+        merger.process();
+        assertEquals(0, merger.getReusedClasses());
+        assertEntries(fresh(one), output);
+    }
+
+    @Test
+    public void replacedOutputIsNotReused() throws IOException {
+        Jars one = new Jars(3);
+        Jars two = new Jars(4);
+        File output = this.temp.resolve("merged.jar").toFile();
+
+        incremental(one, output).process();
+        // Something other than the merger writes the output, leaving the inputs file as it was.
+        Files.copy(fresh(two).toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        Merger merger = incremental(one, output);
+        merger.process();
+        assertEquals(0, merger.getReusedClasses());
+        assertEntries(fresh(one), output);
+    }
+
+    @Test
+    public void changedOptionsMergeEverything() throws IOException {
+        Jars jars = new Jars(5);
+        File output = this.temp.resolve("merged.jar").toFile();
+        incremental(jars, output).process();
+
+        Merger merger = new Merger(jars.client, jars.server, output).annotate(AnnotationVersion.NMF, true).incremental();
+        merger.process();
+        assertEquals(0, merger.getReusedClasses());
+        File expected = this.temp.resolve("expected-nmf.jar").toFile();
+        new Merger(jars.client, jars.server, expected).annotate(AnnotationVersion.NMF, true).process();
+        assertEntries(expected, output);
+
+        merger = new Merger(jars.client, jars.server, output).annotate(AnnotationVersion.NMF, true).sortInterfaces().incremental();
+        merger.process();
+        assertEquals(0, merger.getReusedClasses());
+        expected = this.temp.resolve("expected-sorted.jar").toFile();
+        new Merger(jars.client, jars.server, expected).annotate(AnnotationVersion.NMF, true).sortInterfaces().process();
+        assertEntries(expected, output);
+    }
+
+    @Test
+    public void changedClassesAreMergedAgain() throws IOException {
+        Jars jars = new Jars(6);
+        File output = this.temp.resolve("merged.jar").toFile();
+        incremental(jars, output).process();
+
+        // One client only, one server only, and one shared class, changed on each side in turn.
+        String clientOnly = null, serverOnly = null, shared = null;
+        for (String name : jars.all.keySet()) {
+            boolean client = jars.clientClasses.containsKey(name);
+            boolean server = jars.serverClasses.containsKey(name);
+            if (client && !server && clientOnly == null)
+                clientOnly = name;
+            else if (server && !client && serverOnly == null)
+                serverOnly = name;
+            else if (client && server && shared == null)
+                shared = name;
+        }
+        assertNotNull(clientOnly);
+        assertNotNull(serverOnly);
+        assertNotNull(shared);
+
+        int reused = jars.classes() - 1;
+        String[][] changes = { { clientOnly, "client" }, { serverOnly, "server" }, { shared, "client" }, { shared, "server" } };
+        for (String[] change : changes) {
+            Map<String, byte[]> side = change[1].equals("client") ? jars.clientClasses : jars.serverClasses;
+            side.put(change[0], withMethod(side.get(change[0]), "changed" + change[1]));
+            jars.write();
+
+            Merger merger = incremental(jars, output);
+            merger.process();
+            assertEquals(reused, merger.getReusedClasses(), change[0] + " " + change[1]);
+            assertEntries(fresh(jars), output);
+        }
+    }
+
+    private static Merger incremental(Jars jars, File output) {
+        return new Merger(jars.client, jars.server, output).annotate(AnnotationVersion.API, true).incremental();
+    }
+
+    private File fresh(Jars jars) throws IOException {
+        File ret = Files.createTempFile(this.temp, "fresh", ".jar").toFile();
+        new Merger(jars.client, jars.server, ret).annotate(AnnotationVersion.API, true).process();
+        return ret;
+    }
+
+    private static void assertEntries(File expected, File actual) throws IOException {
+        Map<String, byte[]> exp = read(expected);
+        Map<String, byte[]> act = read(actual);
+        assertEquals(exp.keySet(), act.keySet());
+        for (Map.Entry<String, byte[]> entry : exp.entrySet())
+            assertArrayEquals(entry.getValue(), act.get(entry.getKey()), entry.getKey());
+    }
+
+    private static Map<String, byte[]> read(File file) throws IOException {
+        Map<String, byte[]> ret = new TreeMap<>();
+        try (ZipReader reader = new ZipReader(file)) {
+            for (ZipReader.Entry entry : reader.getEntries())
+                ret.put(entry.name, reader.read(entry));
+        }
+        return ret;
+    }
+
+    private static byte[] withMethod(byte[] data, String name) {
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public void visitEnd() {
+                MethodVisitor mv = this.cv.visitMethod(Opcodes.ACC_PUBLIC, name, "()V", null, null);
+                mv.visitCode();
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 1);
+                mv.visitEnd();
+                super.visitEnd();
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    private class Jars {
+        final Map<String, byte[]> clientClasses = new TreeMap<>();
+        final Map<String, byte[]> serverClasses = new TreeMap<>();
+        final Map<String, byte[]> all = new TreeMap<>();
+        final File client;
+        final File server;
+
+        Jars(int seed) throws IOException {
+            MultiMergerTest.generate(new Random(seed), this.clientClasses, this.serverClasses);
+            this.all.putAll(this.clientClasses);
+            this.all.putAll(this.serverClasses);
+            this.client = MergerTest.this.temp.resolve("client" + seed + ".jar").toFile();
+            this.server = MergerTest.this.temp.resolve("server" + seed + ".jar").toFile();
+            write();
+        }
+
+        void write() throws IOException {
+            Files.write(this.client.toPath(), ZipReaderTest.zip(this.clientClasses));
+            Files.write(this.server.toPath(), ZipReaderTest.zip(this.serverClasses));
+        }
+
+        int classes() {
+            return this.all.size();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class MultiMergerTest {
+    /*
+     * With two inputs labeled with the annotation's own sides, a multi merge has to be exactly the same as a two way merge.
+     */
+    @Test
+    public void twoSidesMatchMerger() throws IOException {
+        for (int seed = 0; seed < 20; seed++) {
+            Map<String, byte[]> client = new TreeMap<>();
+            Map<String, byte[]> server = new TreeMap<>();
+            generate(new Random(seed), client, server);
+
+            for (AnnotationVersion ann : new AnnotationVersion[] { AnnotationVersion.API, AnnotationVersion.NMF }) {
+                for (boolean sort : new boolean[] { false, true }) {
+                    Map<String, byte[]> expected = new TreeMap<>();
+                    Merger merger = new Merger(JarSource.of(client), JarSource.of(server), JarSink.callback(expected::put)).annotate(ann, true);
+                    if (sort)
+                        merger.sortInterfaces();
+                    merger.process();
+
+                    Map<String, byte[]> actual = new TreeMap<>();
+                    MultiMerger multi = new MultiMerger(JarSink.callback(actual::put))
+                        .input(JarSource.of(client), ann.getSide(true))
+                        .input(JarSource.of(server), ann.getSide(false))
+                        .annotate(ann, true);
+                    if (sort)
+                        multi.sortInterfaces();
+                    multi.process();
+
+                    String context = "seed " + seed + " " + ann + (sort ? " sorted" : "");
+                    assertEquals(expected.keySet(), actual.keySet(), context);
+                    for (Map.Entry<String, byte[]> entry : expected.entrySet())
+                        assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), context + " " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    // Classes on both sides, each side taking a random part of a shared member list so they agree on the order, plus classes only one side has.
+    static void generate(Random rand, Map<String, byte[]> client, Map<String, byte[]> server) {
+        for (int cls = 0; cls < 40; cls++) {
+            String name = "pkg/C" + cls;
+            int fields = rand.nextInt(8);
+            int methods = rand.nextInt(12);
+            int[] lines = new int[methods];
+            for (int x = 0; x < methods; x++)
+                lines[x] = rand.nextInt(3) == 0 ? -1 : rand.nextInt(100);
+            List<String> interfaces = new ArrayList<>();
+            for (char c = 'A'; c <= 'F'; c++)
+                interfaces.add("pkg/I" + c);
+            Collections.shuffle(interfaces, rand);
+
+            int where = rand.nextInt(10);
+            if (where != 0)
+                client.put(name + ".class", create(rand, name, fields, methods, lines, interfaces));
+            if (where != 1)
+                server.put(name + ".class", create(rand, name, fields, methods, lines, interfaces));
+        }
+    }
+
+    private static byte[] create(Random rand, String name, int fields, int methods, int[] lines, List<String> interfaces) {
+        List<String> intfs = new ArrayList<>();
+        for (String intf : interfaces) {
+            if (rand.nextBoolean())
+                intfs.add(intf);
+        }
+
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", intfs.toArray(new String[intfs.size()]));
+        for (int x = 0; x < 3; x++) {
+            if (rand.nextBoolean())
+                writer.visitInnerClass(name + "$" + x, name, "Inner" + x, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+        }
+        for (int x = 0; x < fields; x++) {
+            if (rand.nextInt(3) != 0)
+                writer.visitField(Opcodes.ACC_PUBLIC, "f" + x, "I", null, null).visitEnd();
+        }
+        for (int x = 0; x < methods; x++) {
+            if (rand.nextInt(3) == 0)
+                continue;
+            MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "m" + x, "()V", null, null);
+            mv.visitCode();
+            if (lines[x] != -1) {
+                Label start = new Label();
+                mv.visitLabel(start);
+                mv.visitLineNumber(lines[x], start);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 1);
+            mv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
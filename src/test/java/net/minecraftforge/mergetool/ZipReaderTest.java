@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Reads jars written by java.util.zip back through ZipReader, including the parts of the format that small jars never use,
+ * and checks that damaged jars fail with an IOException instead of whatever the parser happened to trip over.
+ */
+public class ZipReaderTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    public void readsWhatZipOutputStreamWrites() throws IOException {
+        Map<String, byte[]> entries = sampleEntries();
+        byte[] zip = zip(entries);
+        File file = write("sample.jar", zip);
+
+        try (ZipReader reader = new ZipReader(file);
+             ZipFile jdk = new ZipFile(file)) {
+            assertEquals(entries.keySet(), readAll(reader).keySet());
+            assertContents(entries, reader);
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                ZipEntry expected = jdk.getEntry(entry.name);
+                assertEquals(expected.getMethod(), entry.method, entry.name);
+                assertEquals(expected.getCrc(), entry.crc, entry.name);
+                assertEquals(expected.getSize(), entry.size, entry.name);
+                assertEquals(expected.getCompressedSize(), entry.compressedSize, entry.name);
+                assertEquals(expected.isDirectory(), entry.isDirectory(), entry.name);
+            }
+        }
+
+        try (ZipReader reader = new ZipReader(ByteBuffer.wrap(zip))) {
+            assertContents(entries, reader);
+        }
+    }
+
+    @Test
+    public void readsZip64EntryCounts() throws IOException {
+        // ZipOutputStream switches to the zip64 end records at 0xFFFF entries
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int x = 0; x < 0x10000 + 10; x++)
+            entries.put("e/" + x, new byte[] { (byte)x });
+        File file = write("many.jar", zip(entries));
+
+        try (ZipReader reader = new ZipReader(file)) {
+            assertEquals(entries.size(), reader.getEntries().size());
+            assertArrayEquals(entries.get("e/65545"), reader.read(reader.getEntry("e/65545")));
+            assertArrayEquals(entries.get("e/0"), reader.read(reader.getEntry("e/0")));
+        }
+    }
+
+    @Test
+    public void readsZip64Offsets() throws IOException {
+        Map<String, byte[]> entries = sampleEntries();
+        byte[] zip = forceZip64Offsets(zip(entries));
+        File file = write("offsets.jar", zip);
+
+        // Make sure the rewritten jar is valid to begin with
+        assertEquals(entries.keySet(), readAllJdk(file).keySet());
+
+        try (ZipReader reader = new ZipReader(file)) {
+            assertContents(entries, reader);
+        }
+    }
+
+    @Test
+    public void readsJarsWithAPrefix() throws IOException {
+        Map<String, byte[]> entries = sampleEntries();
+        byte[] prefix = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.UTF_8);
+        byte[] zip = concat(prefix, zip(entries));
+        File file = write("prefixed.jar", zip);
+
+        try (ZipReader reader = new ZipReader(file)) {
+            assertContents(entries, reader);
+        }
+        try (ZipReader reader = new ZipReader(ByteBuffer.wrap(zip))) {
+            assertContents(entries, reader);
+        }
+    }
+
+    @Test
+    public void opensStoredNestedJarsInPlace() throws IOException {
+        Map<String, byte[]> inner = sampleEntries();
+        Map<String, byte[]> outer = new LinkedHashMap<>();
+        outer.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        outer.put("META-INF/versions/inner.jar", zip(inner));
+        File file = write("outer.jar", zip(outer, ZipEntry.STORED));
+
+        ZipReader nested;
+        try (ZipReader reader = new ZipReader(file)) {
+            ZipReader.Entry entry = reader.getEntry("META-INF/versions/inner.jar");
+            assertEquals(ZipEntry.STORED, entry.method);
+            nested = reader.openNested(entry, new SpillStore(0, this.temp.resolve("spill")));
+        }
+        // The nested reader has its own handle, so it outlives the outer one.
+        try (ZipReader reader = nested) {
+            assertContents(inner, reader);
+        }
+        assertFalse(Files.exists(this.temp.resolve("spill")), "Stored jars should never be spilled");
+    }
+
+    @Test
+    public void spillsCompressedNestedJars() throws IOException {
+        Map<String, byte[]> inner = sampleEntries();
+        Map<String, byte[]> outer = new LinkedHashMap<>();
+        outer.put("inner.jar", zip(inner));
+        File file = write("outer.jar", zip(outer));
+        Path spill = this.temp.resolve("spill");
+
+        for (long budget : new long[] { 0, 1L << 20 }) {
+            SpillStore store = new SpillStore(budget, spill);
+            try (ZipReader reader = new ZipReader(file);
+                 ZipReader nested = reader.openNested(reader.getEntry("inner.jar"), store)) {
+                assertContents(inner, nested);
+            }
+            assertEquals(0, store.getUsed());
+            if (Files.exists(spill)) {
+                try (Stream<Path> files = Files.list(spill)) {
+                    assertEquals(0, files.count(), "Temp files should be deleted on close");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void damagedJarsFailWithIOException() throws IOException {
+        byte[] zip = zip(sampleEntries());
+        ByteBuffer buf = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int end = zip.length - 22;
+        int cen = buf.getInt(end + 16);
+
+        assertFails(new byte[0]);
+        assertFails(new byte[21]);
+        assertFails("not a zip file at all, just some text that is long enough".getBytes(StandardCharsets.UTF_8));
+        // Missing the end of central directory
+        assertFails(Arrays.copyOf(zip, zip.length - 10));
+        // Missing part of the central directory
+        assertFails(concat(Arrays.copyOf(zip, cen + 10), Arrays.copyOfRange(zip, end, zip.length)));
+        // Central directory offset past the end of the file
+        assertFails(patchInt(zip, end + 16, zip.length + 100));
+        // Central directory size larger than the file
+        assertFails(patchInt(zip, end + 12, 0x7FFFFFF0));
+        // More entries than the central directory holds
+        assertFails(patchShort(zip, end + 10, 0xFFF0));
+        // Bad signature on the first entry
+        assertFails(patchInt(zip, cen, 0x12345678));
+        // Name, extra and comment lengths that run past the central directory
+        assertFails(patchShort(zip, cen + 28, 0xFFFF));
+        assertFails(patchShort(zip, cen + 30, 0xFFFF));
+        assertFails(patchShort(zip, cen + 32, 0xFFFF));
+        // Local header offset past the end of the file
+        assertFails(patchInt(zip, cen + 42, 0x7FFFFFF0));
+        // Sizes that say zip64, without the extra field to back them up
+        assertFails(patchInt(zip, cen + 20, 0xFFFFFFFF));
+        assertFails(patchInt(zip, cen + 24, 0xFFFFFFFF));
+        assertFails(patchInt(zip, cen + 42, 0xFFFFFFFF));
+    }
+
+    @Test
+    public void damagedDataFailsTheCrc() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/Stored.class", "hello world payload".getBytes(StandardCharsets.UTF_8));
+        byte[] zip = zip(entries, ZipEntry.STORED);
+        int data = indexOf(zip, entries.get("a/Stored.class"));
+        zip[data + 12] = 'X';
+
+        try (ZipReader reader = new ZipReader(ByteBuffer.wrap(zip))) {
+            ZipReader.Entry entry = reader.getEntry("a/Stored.class");
+            assertThrows(ZipException.class, () -> reader.read(entry));
+            assertThrows(ZipException.class, () -> {
+                try (InputStream in = reader.openStream(entry)) {
+                    readFully(in);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void everyDamagedByteFailsCleanly() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/Stored.class", "stored".getBytes(StandardCharsets.UTF_8));
+        entries.put("b/Deflated.class", "deflated deflated deflated".getBytes(StandardCharsets.UTF_8));
+        byte[] zip = forceZip64Offsets(zip(entries));
+
+        for (int x = 0; x < zip.length; x++) {
+            for (int value : new int[] { 0x00, 0xFF, zip[x] ^ 0x01 }) {
+                byte[] damaged = zip.clone();
+                damaged[x] = (byte)value;
+                try (ZipReader reader = new ZipReader(ByteBuffer.wrap(damaged))) {
+                    // Some bytes, like times and comments, don't matter. But if it reads at all, it has to be the data that was written,
+                    // under its own name, or under a damaged name that no longer matches anything.
+                    String context = "Changing byte " + x + " to " + value + " read damaged data";
+                    for (Map.Entry<String, byte[]> entry : readAll(reader).entrySet()) {
+                        byte[] expected = entries.get(entry.getKey());
+                        if (expected == null)
+                            assertTrue(entries.values().stream().anyMatch(v -> Arrays.equals(v, entry.getValue())), context);
+                        else
+                            assertArrayEquals(expected, entry.getValue(), context + " for " + entry.getKey());
+                    }
+                } catch (IOException e) {
+                    // Expected for most positions, anything else is a bug
+                } catch (RuntimeException e) {
+                    throw new AssertionError("Changing byte " + x + " to " + value + " threw " + e, e);
+                }
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] find) {
+        for (int x = 0; x + find.length <= data.length; x++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, x, x + find.length), find))
+                return x;
+        }
+        throw new IllegalArgumentException("Not found");
+    }
+
+    private static void assertFails(byte[] zip) {
+        assertThrows(IOException.class, () -> {
+            try (ZipReader reader = new ZipReader(ByteBuffer.wrap(zip))) {
+                readAll(reader);
+            }
+        });
+    }
+
+    private static void assertContents(Map<String, byte[]> expected, ZipReader reader) throws IOException {
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            ZipReader.Entry actual = reader.getEntry(entry.getKey());
+            assertNotNull(actual, entry.getKey());
+            assertArrayEquals(entry.getValue(), reader.read(actual), entry.getKey());
+            try (InputStream in = reader.openStream(actual)) {
+                assertArrayEquals(entry.getValue(), readFully(in), entry.getKey());
+            }
+        }
+    }
+
+    // Reads every entry both ways, so damaged data is found by either path.
+    private static Map<String, byte[]> readAll(ZipReader reader) throws IOException {
+        Map<String, byte[]> ret = new TreeMap<>();
+        for (ZipReader.Entry entry : reader.getEntries()) {
+            ret.put(entry.name, reader.read(entry));
+            try (InputStream in = reader.openStream(entry)) {
+                readFully(in);
+            }
+        }
+        return ret;
+    }
+
+    private static Map<String, byte[]> readAllJdk(File file) throws IOException {
+        Map<String, byte[]> ret = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    ret.put(entry.getName(), readFully(in));
+                }
+            }
+        }
+        return ret;
+    }
+
+    static Map<String, byte[]> sampleEntries() {
+        Random rand = new Random(42);
+        byte[] noise = new byte[100000];
+        rand.nextBytes(noise);
+        byte[] text = new byte[200000];
+        for (int x = 0; x < text.length; x++)
+            text[x] = (byte)('a' + rand.nextInt(4));
+
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        ret.put("META-INF/", new byte[0]);
+        ret.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        ret.put("net/minecraft/Empty.class", new byte[0]);
+        ret.put("net/minecraft/Text.class", text);
+        ret.put("assets/noise.bin", noise);
+        ret.put("assets/\u00fcnicode \u2603.txt", "snowman".getBytes(StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        return zip(entries, ZipEntry.DEFLATED);
+    }
+
+    // Entries ending in .jar or .bin use the given method, the rest are deflated, so every jar has a mix of both.
+    static byte[] zip(Map<String, byte[]> entries, int method) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry ze = new ZipEntry(entry.getKey());
+                byte[] data = entry.getValue();
+                if (method == ZipEntry.STORED || entry.getKey().endsWith(".bin")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data, 0, data.length);
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(data.length);
+                    ze.setCompressedSize(data.length);
+                    ze.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(ze);
+                zip.write(data);
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * Moves every local header offset into a zip64 extra field, the way writers do once offsets pass 4GB, without needing a 4GB file.
+     */
+    static byte[] forceZip64Offsets(byte[] zip) {
+        ByteBuffer buf = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int end = zip.length - 22;
+        assertEquals(0x06054b50, buf.getInt(end));
+        int count = buf.getShort(end + 10) & 0xFFFF;
+        int cenOffset = buf.getInt(end + 16);
+
+        ByteArrayOutputStream cen = new ByteArrayOutputStream();
+        int pos = cenOffset;
+        for (int x = 0; x < count; x++) {
+            int nameLen = buf.getShort(pos + 28) & 0xFFFF;
+            int extraLen = buf.getShort(pos + 30) & 0xFFFF;
+            int commentLen = buf.getShort(pos + 32) & 0xFFFF;
+            long offset = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            ByteBuffer entry = ByteBuffer.allocate(46 + nameLen + extraLen + 12 + commentLen).order(ByteOrder.LITTLE_ENDIAN);
+            entry.put(zip, pos, 46 + nameLen + extraLen);
+            entry.putShort(4, (short)45);
+            entry.putShort(6, (short)45);
+            entry.putShort(30, (short)(extraLen + 12));
+            entry.putInt(42, 0xFFFFFFFF);
+            entry.putShort((short)0x0001).putShort((short)8).putLong(offset);
+            entry.put(zip, pos + 46 + nameLen + extraLen, commentLen);
+            cen.write(entry.array(), 0, entry.capacity());
+            pos += 46 + nameLen + extraLen + commentLen;
+        }
+
+        byte[] newCen = cen.toByteArray();
+        ByteBuffer ret = ByteBuffer.allocate(cenOffset + newCen.length + 22).order(ByteOrder.LITTLE_ENDIAN);
+        ret.put(zip, 0, cenOffset).put(newCen).put(zip, end, 22);
+        ret.putInt(cenOffset + newCen.length + 12, newCen.length);
+        return ret.array();
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        Path path = this.temp.resolve(name);
+        Files.write(path, data);
+        return path.toFile();
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int len; (len = in.read(buf)) != -1; )
+            out.write(buf, 0, len);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] ret = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ret, a.length, b.length);
+        return ret;
+    }
+
+    private static byte[] patchShort(byte[] zip, int pos, int value) {
+        byte[] ret = zip.clone();
+        ByteBuffer.wrap(ret).order(ByteOrder.LITTLE_ENDIAN).putShort(pos, (short)value);
+        return ret;
+    }
+
+    private static byte[] patchInt(byte[] zip, int pos, int value) {
+        byte[] ret = zip.clone();
+        ByteBuffer.wrap(ret).order(ByteOrder.LITTLE_ENDIAN).putInt(pos, value);
+        return ret;
+    }
+}
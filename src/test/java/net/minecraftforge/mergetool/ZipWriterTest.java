@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.mergetool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Reads what ZipWriter writes back with java.util.zip, which is what everything downstream of the merge uses.
+ */
+public class ZipWriterTest {
+    private static final long TIME = ZipWriter.toDosTime(System.currentTimeMillis());
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void writesNewAndCopiedEntries() throws IOException {
+        Map<String, byte[]> entries = ZipReaderTest.sampleEntries();
+        File source = write("source.jar", ZipReaderTest.zip(entries));
+        File output = this.temp.resolve("output.jar").toFile();
+
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        try (ZipReader reader = new ZipReader(source);
+             ZipWriter writer = new ZipWriter(Files.newOutputStream(output.toPath()))) {
+            // Raw copies, both the deflated and stored entries keep their data exactly as it was.
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                writer.write(writer.copyEntry(entry.name, TIME, reader, entry));
+                expected.put(entry.name, entries.get(entry.name));
+            }
+            // Recompressed at every level, including stored.
+            for (int level : new int[] { -1, 0, 1, 9 }) {
+                byte[] data = entries.get("net/minecraft/Text.class");
+                writer.write(writer.newEntry("level" + level + "/Text.class", TIME, data, level));
+                expected.put("level" + level + "/Text.class", data);
+            }
+        }
+
+        assertEntries(expected, readJdk(output));
+        assertEntries(expected, readStream(output));
+
+        try (ZipFile src = new ZipFile(source);
+             ZipFile out = new ZipFile(output)) {
+            for (ZipEntry entry : Collections.list(src.entries())) {
+                ZipEntry copy = out.getEntry(entry.getName());
+                assertEquals(entry.getMethod(), copy.getMethod(), entry.getName());
+                assertEquals(entry.getCrc(), copy.getCrc(), entry.getName());
+                assertEquals(entry.getCompressedSize(), copy.getCompressedSize(), entry.getName());
+            }
+            assertEquals(ZipEntry.STORED, out.getEntry("level0/Text.class").getMethod());
+            assertEquals(ZipEntry.DEFLATED, out.getEntry("level9/Text.class").getMethod());
+        }
+
+        try (JarFile jar = new JarFile(output)) {
+            assertNotNull(jar.getManifest());
+            assertEquals("1.0", jar.getManifest().getMainAttributes().getValue("Manifest-Version"));
+        }
+    }
+
+    @Test
+    public void writesZip64Offsets() throws IOException {
+        Map<String, byte[]> entries = ZipReaderTest.sampleEntries();
+        // 0 makes every entry zip64, and the limit in the middle makes sure a mix of both is fine too.
+        for (long limit : new long[] { 0, 100000 }) {
+            File output = this.temp.resolve("zip64-" + limit + ".jar").toFile();
+            try (ZipWriter writer = new ZipWriter(Files.newOutputStream(output.toPath()), null, limit)) {
+                for (Map.Entry<String, byte[]> entry : entries.entrySet())
+                    writer.write(writer.newEntry(entry.getKey(), TIME, entry.getValue(), -1));
+            }
+
+            byte[] data = Files.readAllBytes(output.toPath());
+            ByteBuffer tail = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(0x07064b50, tail.getInt(data.length - 22 - 20), "Missing zip64 locator");
+
+            assertEntries(entries, readJdk(output));
+            assertEntries(entries, readStream(output));
+            try (ZipReader reader = new ZipReader(output)) {
+                for (Map.Entry<String, byte[]> entry : entries.entrySet())
+                    assertArrayEquals(entry.getValue(), reader.read(reader.getEntry(entry.getKey())), entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void writesZip64EntryCounts() throws IOException {
+        File output = this.temp.resolve("many.jar").toFile();
+        int count = 0x10000 + 10;
+        try (ZipWriter writer = new ZipWriter(Files.newOutputStream(output.toPath()))) {
+            for (int x = 0; x < count; x++)
+                writer.write(writer.newEntry("e/" + x, TIME, new byte[] { (byte)x }, 0));
+        }
+
+        try (ZipFile zip = new ZipFile(output)) {
+            assertEquals(count, zip.size());
+            try (InputStream in = zip.getInputStream(zip.getEntry("e/65545"))) {
+                assertArrayEquals(new byte[] { (byte)65545 }, ZipReaderTest.readFully(in));
+            }
+        }
+        try (ZipReader reader = new ZipReader(output)) {
+            assertEquals(count, reader.getEntries().size());
+        }
+    }
+
+    @Test
+    public void rejectsDuplicateEntries() throws IOException {
+        try (ZipWriter writer = new ZipWriter(new ByteArrayOutputStream())) {
+            writer.write(writer.newEntry("a.txt", TIME, "a".getBytes(StandardCharsets.UTF_8), -1));
+            assertThrows(ZipException.class, () -> writer.write(writer.newEntry("a.txt", TIME, "b".getBytes(StandardCharsets.UTF_8), -1)));
+        }
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet())
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        Path path = this.temp.resolve(name);
+        Files.write(path, data);
+        return path.toFile();
+    }
+
+    private static Map<String, byte[]> readJdk(File file) throws IOException {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    ret.put(entry.getName(), ZipReaderTest.readFully(in));
+                }
+            }
+        }
+        return ret;
+    }
+
+    // ZipInputStream only reads the local headers, so this checks those agree with the central directory.
+    private static Map<String, byte[]> readStream(File file) throws IOException {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file.toPath()))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; )
+                ret.put(entry.getName(), ZipReaderTest.readFully(zip));
+        }
+        return ret;
+    }
+}